@@ -0,0 +1,234 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.bench;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spout.api.Engine;
+import org.spout.api.entity.Player;
+import org.spout.api.event.EventManager;
+import org.spout.api.scheduler.Scheduler;
+
+/**
+ * Stand-ins for the Spout interfaces WindChat talks to, so the plugin can
+ * run without a server. Every method that is not faked returns the default
+ * value of its return type.
+ */
+public final class Fakes {
+	private Fakes() {
+	}
+
+	/**
+	 * Creates a player that has every permission and counts the messages it
+	 * receives.
+	 * 
+	 * @param name of the player
+	 * @return fake player
+	 */
+	public static Player player(String name) {
+		return player(name, null);
+	}
+
+	/**
+	 * Creates a player that has every permission and passes the messages it
+	 * receives to the specified receiver.
+	 * 
+	 * @param name of the player
+	 * @param receiver of messages, or null to only count them
+	 * @return fake player
+	 */
+	public static Player player(String name, Receiver receiver) {
+		return proxy(Player.class, new FakePlayer(name, receiver));
+	}
+
+	/**
+	 * Gets the handler behind a player created by {@link #player(String)}.
+	 * 
+	 * @param player to get handler of
+	 * @return fake player
+	 */
+	public static FakePlayer handler(Player player) {
+		return (FakePlayer) Proxy.getInvocationHandler(player);
+	}
+
+	/**
+	 * Creates an engine whose event manager passes every event through
+	 * unchanged and whose scheduler runs nothing.
+	 * 
+	 * @return fake engine
+	 */
+	public static Engine engine() {
+		return engine(proxy(Scheduler.class, new Defaults()));
+	}
+
+	/**
+	 * Creates an engine whose event manager passes every event through
+	 * unchanged, using the specified scheduler.
+	 * 
+	 * @param scheduler of the engine
+	 * @return fake engine
+	 */
+	public static Engine engine(final Scheduler scheduler) {
+		final EventManager events = proxy(EventManager.class, new Defaults() {
+			@Override
+			protected Object handle(Method method, Object[] args) {
+				if (method.getName().equals("callEvent")) {
+					return args[0];
+				}
+				return super.handle(method, args);
+			}
+		});
+		return proxy(Engine.class, new Defaults() {
+			@Override
+			protected Object handle(Method method, Object[] args) {
+				if (method.getName().equals("getEventManager")) {
+					return events;
+				}
+				if (method.getName().equals("getScheduler")) {
+					return scheduler;
+				}
+				return super.handle(method, args);
+			}
+		});
+	}
+
+	/**
+	 * Creates a proxy of an interface backed by the specified handler.
+	 * 
+	 * @param type to proxy
+	 * @param handler of calls
+	 * @return proxy
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(Fakes.class.getClassLoader(), new Class<?>[] {type}, handler);
+	}
+
+	/**
+	 * Answers object methods by identity and everything else with defaults.
+	 */
+	public static class Defaults implements InvocationHandler {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			String name = method.getName();
+			if (name.equals("equals") && args != null && args.length == 1) {
+				return proxy == args[0];
+			}
+			if (name.equals("hashCode") && args == null) {
+				return System.identityHashCode(proxy);
+			}
+			if (name.equals("toString") && args == null) {
+				return toString();
+			}
+			return handle(method, args);
+		}
+
+		protected Object handle(Method method, Object[] args) {
+			Class<?> type = method.getReturnType();
+			if (!type.isPrimitive() || type == void.class) {
+				return null;
+			} else if (type == boolean.class) {
+				return false;
+			} else if (type == char.class) {
+				return '\0';
+			} else if (type == long.class) {
+				return 0L;
+			} else if (type == float.class) {
+				return 0F;
+			} else if (type == double.class) {
+				return 0D;
+			} else if (type == byte.class) {
+				return (byte) 0;
+			} else if (type == short.class) {
+				return (short) 0;
+			}
+			return 0;
+		}
+	}
+
+	/**
+	 * Receives the messages sent to a fake player.
+	 */
+	public interface Receiver {
+		/**
+		 * Called for every message sent to the player, on the sending thread.
+		 * 
+		 * @param message arguments of the sendMessage call
+		 */
+		void receive(Object[] message);
+	}
+
+	/**
+	 * The state of a fake player.
+	 */
+	public static class FakePlayer extends Defaults {
+		private final String name;
+		private final UUID id = UUID.randomUUID();
+		private final AtomicLong received = new AtomicLong();
+		private final Receiver receiver;
+
+		private FakePlayer(String name, Receiver receiver) {
+			this.name = name;
+			this.receiver = receiver;
+		}
+
+		/**
+		 * Gets the amount of messages sent to the player.
+		 * 
+		 * @return received messages
+		 */
+		public long getReceived() {
+			return received.get();
+		}
+
+		@Override
+		protected Object handle(Method method, Object[] args) {
+			String called = method.getName();
+			if (called.equals("sendMessage")) {
+				received.incrementAndGet();
+				if (receiver != null) {
+					receiver.receive(args);
+				}
+				return true;
+			}
+			if (called.equals("getName") || called.equals("getDisplayName")) {
+				return name;
+			}
+			if (called.equals("getUID")) {
+				return id;
+			}
+			if (called.equals("hasPermission") || called.equals("isOnline")) {
+				return true;
+			}
+			return super.handle(method, args);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+}
@@ -0,0 +1,164 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.bench;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.windwaker.chat.WindChat;
+import net.windwaker.chat.chan.BroadcastPipeline;
+import net.windwaker.chat.chan.Channel;
+import net.windwaker.chat.chan.Chatter;
+import net.windwaker.chat.chan.SpatialIndex;
+import net.windwaker.chat.handler.DateHandler;
+import net.windwaker.chat.io.ChatLogger;
+import net.windwaker.chat.io.yaml.BotConfiguration;
+import net.windwaker.chat.io.yaml.ChannelConfiguration;
+import net.windwaker.chat.io.yaml.ChatterConfiguration;
+import net.windwaker.chat.metrics.Metrics;
+
+import org.spout.api.Engine;
+import org.spout.api.chat.ChatArguments;
+import org.spout.api.entity.Player;
+import org.spout.api.plugin.CommonPlugin;
+
+/**
+ * A {@link WindChat} instance wired to {@link Fakes} instead of a server.
+ * Nothing is loaded from or written to disk, the chat logger is never
+ * started and no tasks are scheduled.
+ */
+public class Harness {
+	private final WindChat plugin = new WindChat();
+	private final BroadcastPipeline pipeline;
+	private final ChannelConfiguration channels;
+	private final BotConfiguration bots;
+
+	public Harness(Engine engine, int broadcastThreads, int broadcastQueueSize) {
+		File dataFolder = new File(System.getProperty("java.io.tmpdir"), "windchat-bench");
+		dataFolder.mkdirs();
+		Logger logger = Logger.getLogger("WindChat-Bench");
+		logger.setUseParentHandlers(false);
+		logger.setLevel(Level.OFF);
+		inject(CommonPlugin.class, Engine.class, engine);
+		inject(CommonPlugin.class, Logger.class, logger);
+		set(CommonPlugin.class, "dataFolder", dataFolder);
+		DateHandler dateHandler = new DateHandler();
+		dateHandler.init();
+		set(WindChat.class, "dateHandler", dateHandler);
+		set(WindChat.class, "metrics", new Metrics(plugin));
+		pipeline = new BroadcastPipeline(plugin, broadcastThreads, broadcastQueueSize);
+		set(WindChat.class, "broadcastPipeline", pipeline);
+		set(WindChat.class, "spatialIndex", new SpatialIndex(plugin, 16));
+		set(WindChat.class, "logger", new ChatLogger(plugin));
+		set(WindChat.class, "chatters", new ChatterConfiguration(plugin));
+		channels = new ChannelConfiguration(plugin);
+		set(WindChat.class, "channels", channels);
+		bots = new BotConfiguration(plugin);
+		set(WindChat.class, "bots", bots);
+	}
+
+	public Harness() {
+		this(Fakes.engine(), 1, 1024);
+	}
+
+	/**
+	 * Gets the plugin.
+	 * 
+	 * @return plugin
+	 */
+	public WindChat getPlugin() {
+		return plugin;
+	}
+
+	/**
+	 * Creates a channel with a simple format that is not saved.
+	 * 
+	 * @param name of the channel
+	 * @return new channel
+	 */
+	public Channel channel(String name) {
+		Channel channel = new Channel(plugin, name);
+		channel.setFormat(ChatArguments.fromFormatString("[" + name + "] {MESSAGE}"));
+		return channel;
+	}
+
+	/**
+	 * Creates a chatter for a fake player and registers it with the plugin.
+	 * 
+	 * @param name of the player
+	 * @return new chatter
+	 */
+	public Chatter chatter(String name) {
+		return chatter(Fakes.player(name));
+	}
+
+	/**
+	 * Creates a chatter for the specified player and registers it with the
+	 * plugin.
+	 * 
+	 * @param player of the chatter
+	 * @return new chatter
+	 */
+	public Chatter chatter(Player player) {
+		Chatter chatter = new Chatter(plugin, player);
+		plugin.getChatters().add(chatter);
+		return chatter;
+	}
+
+	/**
+	 * Stops the threads started by the harness.
+	 */
+	public void close() {
+		pipeline.shutdown();
+		channels.close();
+		bots.close();
+	}
+
+	private void inject(Class<?> owner, Class<?> type, Object value) {
+		for (Field field : owner.getDeclaredFields()) {
+			if (field.getType().isAssignableFrom(type)) {
+				set(field, value);
+				return;
+			}
+		}
+		throw new IllegalStateException("No " + type.getSimpleName() + " field in " + owner.getName());
+	}
+
+	private void set(Class<?> owner, String name, Object value) {
+		try {
+			set(owner.getDeclaredField(name), value);
+		} catch (NoSuchFieldException e) {
+			throw new IllegalStateException("No field " + name + " in " + owner.getName(), e);
+		}
+	}
+
+	private void set(Field field, Object value) {
+		try {
+			field.setAccessible(true);
+			field.set(plugin, value);
+		} catch (IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,98 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.bench;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import net.windwaker.chat.chan.Channel;
+import net.windwaker.chat.chan.Chatter;
+import net.windwaker.chat.io.yaml.ChatterConfiguration;
+import net.windwaker.chat.util.NamedRegistry;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.spout.api.entity.Player;
+
+/**
+ * Measures looking up channels and chatters by name and id.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RegistryBenchmark {
+	@Param({"16", "1024"})
+	public int size;
+	private Harness harness;
+	private final NamedRegistry<Channel> channels = new NamedRegistry<Channel>();
+	private ChatterConfiguration chatters;
+	private String[] names;
+	private UUID[] ids;
+	private int next;
+
+	@Setup
+	public void setUp() {
+		harness = new Harness();
+		chatters = harness.getPlugin().getChatters();
+		names = new String[size];
+		ids = new UUID[size];
+		for (int i = 0; i < size; i++) {
+			names[i] = "Name" + i;
+			channels.add(harness.channel(names[i].toLowerCase()));
+			Chatter chatter = harness.chatter(names[i]);
+			ids[i] = ((Player) chatter.getParent()).getUID();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		harness.close();
+	}
+
+	@Benchmark
+	public Channel channelByName() {
+		return channels.get(names[next++ & (size - 1)]);
+	}
+
+	@Benchmark
+	public Chatter chatterByName() {
+		return chatters.get(names[next++ & (size - 1)]);
+	}
+
+	@Benchmark
+	public Chatter chatterById() {
+		return chatters.get(ids[next++ & (size - 1)]);
+	}
+}
@@ -0,0 +1,69 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.sim;
+
+import java.util.Arrays;
+
+/**
+ * Collects latency samples and reports their percentiles.
+ */
+public class LatencyRecorder {
+	private long[] samples = new long[1024];
+	private int size;
+
+	/**
+	 * Records a latency sample.
+	 * 
+	 * @param nanos latency in nanoseconds
+	 */
+	public synchronized void record(long nanos) {
+		if (size == samples.length) {
+			samples = Arrays.copyOf(samples, size * 2);
+		}
+		samples[size++] = nanos;
+	}
+
+	/**
+	 * Gets the amount of recorded samples.
+	 * 
+	 * @return amount of samples
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the latency that the specified fraction of samples are at or
+	 * below.
+	 * 
+	 * @param fraction between 0 and 1
+	 * @return latency in nanoseconds, or 0 if nothing was recorded
+	 */
+	public synchronized long percentile(double fraction) {
+		if (size == 0) {
+			return 0;
+		}
+		Arrays.sort(samples, 0, size);
+		int index = (int) Math.ceil(fraction * size) - 1;
+		return samples[Math.max(0, Math.min(size - 1, index))];
+	}
+}
@@ -0,0 +1,71 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.sim;
+
+import java.util.Random;
+
+import net.windwaker.chat.WindChat;
+import net.windwaker.chat.chan.Chatter;
+
+import org.spout.api.command.CommandSource;
+import org.spout.api.geo.World;
+import org.spout.api.geo.discrete.Point;
+
+/**
+ * A chatter that walks around a square area instead of being positioned by
+ * a server.
+ */
+public class SimChatter extends Chatter {
+	private final World world;
+	private final float area;
+	private volatile Point position;
+
+	public SimChatter(WindChat plugin, CommandSource parent, World world, float area, Random random) {
+		super(plugin, parent);
+		this.world = world;
+		this.area = area;
+		position = new Point(world, random.nextFloat() * area, 64, random.nextFloat() * area);
+	}
+
+	/**
+	 * Moves the chatter a random step of at most the specified distance on
+	 * each axis, staying within the area.
+	 * 
+	 * @param random source of the step
+	 * @param distance in blocks
+	 */
+	public void move(Random random, float distance) {
+		Point from = position;
+		float x = clamp(from.getX() + (random.nextFloat() * 2 - 1) * distance);
+		float z = clamp(from.getZ() + (random.nextFloat() * 2 - 1) * distance);
+		position = new Point(world, x, from.getY(), z);
+	}
+
+	private float clamp(float coordinate) {
+		return Math.max(0, Math.min(area, coordinate));
+	}
+
+	@Override
+	public Point getPosition() {
+		return position;
+	}
+}
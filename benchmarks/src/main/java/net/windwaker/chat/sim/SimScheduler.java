@@ -0,0 +1,103 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.sim;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import net.windwaker.chat.bench.Fakes;
+
+import org.spout.api.scheduler.Scheduler;
+
+/**
+ * A scheduler that runs every task on the simulation thread when it is
+ * ticked. Asynchronous tasks are run the same way as synchronous tasks.
+ */
+public class SimScheduler extends Fakes.Defaults {
+	private final List<SimTask> tasks = new ArrayList<SimTask>();
+	private long now;
+
+	/**
+	 * Creates the scheduler the engine hands out.
+	 * 
+	 * @return scheduler
+	 */
+	public Scheduler create() {
+		return Fakes.proxy(Scheduler.class, this);
+	}
+
+	/**
+	 * Runs every task that is due at the specified time.
+	 * 
+	 * @param now in milliseconds
+	 */
+	public void tick(long now) {
+		List<SimTask> due = new ArrayList<SimTask>();
+		synchronized (this) {
+			this.now = now;
+			Iterator<SimTask> i = tasks.iterator();
+			while (i.hasNext()) {
+				SimTask task = i.next();
+				if (task.next > now) {
+					continue;
+				}
+				due.add(task);
+				if (task.period > 0) {
+					task.next = now + task.period;
+				} else {
+					i.remove();
+				}
+			}
+		}
+		for (SimTask task : due) {
+			task.runnable.run();
+		}
+	}
+
+	@Override
+	protected synchronized Object handle(Method method, Object[] args) {
+		String name = method.getName();
+		if (name.equals("scheduleSyncRepeatingTask")) {
+			tasks.add(new SimTask((Runnable) args[1], now + ((Number) args[2]).longValue(), ((Number) args[3]).longValue()));
+		} else if (name.equals("scheduleSyncDelayedTask") || name.equals("scheduleAsyncDelayedTask")) {
+			long delay = args.length > 2 ? ((Number) args[2]).longValue() : 0;
+			tasks.add(new SimTask((Runnable) args[1], now + delay, 0));
+		} else if (name.equals("cancelTasks")) {
+			tasks.clear();
+		}
+		return super.handle(method, args);
+	}
+
+	private static class SimTask {
+		private final Runnable runnable;
+		private final long period;
+		private long next;
+
+		private SimTask(Runnable runnable, long next, long period) {
+			this.runnable = runnable;
+			this.next = next;
+			this.period = period;
+		}
+	}
+}
@@ -0,0 +1,310 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.sim;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import net.windwaker.chat.WindChat;
+import net.windwaker.chat.bench.Fakes;
+import net.windwaker.chat.bench.Harness;
+import net.windwaker.chat.chan.Channel;
+import net.windwaker.chat.chan.Chatter;
+import net.windwaker.chat.chan.IrcRoutingTable;
+import net.windwaker.chat.handler.IrcInboundHandler;
+import net.windwaker.chat.io.yaml.ChatConfiguration;
+
+import org.spout.api.Engine;
+import org.spout.api.chat.ChatArguments;
+import org.spout.api.entity.Player;
+import org.spout.api.geo.World;
+import org.spout.api.scheduler.TaskPriority;
+
+/**
+ * Runs WindChat without a server against thousands of synthetic chatters
+ * and reports throughput, delivery latency and allocation rates.
+ * <p>
+ * Options are passed as key=value arguments, see {@link #DEFAULTS}.
+ */
+public class Simulation implements Fakes.Receiver {
+	/**
+	 * The options of the simulation and their defaults.
+	 */
+	public static final String[][] DEFAULTS = {
+		{"chatters", "2000", "amount of synthetic chatters"},
+		{"channels", "8", "amount of channels"},
+		{"ranged", "2", "amount of the channels that are ranged"},
+		{"radius", "64", "radius of ranged channels in blocks"},
+		{"area", "1024", "side of the square the chatters walk in, in blocks"},
+		{"speed", "4", "distance a chatter walks per second, in blocks"},
+		{"rate", "6", "messages per chatter per minute"},
+		{"irc", "2", "amount of IRC stand-ins"},
+		{"irc-rate", "5", "messages per IRC stand-in per second"},
+		{"probes", "0.02", "fraction of chatters that record delivery latency"},
+		{"threads", "2", "broadcast threads"},
+		{"queue", "65536", "broadcast queue size"},
+		{"tick", "50", "length of a server tick in milliseconds"},
+		{"duration", "60", "length of the simulation in seconds"},
+		{"seed", "1", "random seed"}
+	};
+	private static final int SEND_TIMES = 1 << 16;
+	private final Map<String, String> options;
+	private final Random random;
+	private final long[] sendTimes = new long[SEND_TIMES];
+	private final LatencyRecorder latency = new LatencyRecorder();
+	private final List<SimChatter> chatters = new ArrayList<SimChatter>(), walkers = new ArrayList<SimChatter>();
+	private final IrcRoutingTable ircRoutes = new IrcRoutingTable();
+	private final SimScheduler scheduler = new SimScheduler();
+	private Harness harness;
+	private volatile long sequence;
+
+	public Simulation(Map<String, String> options) {
+		this.options = options;
+		random = new Random(getLong("seed"));
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		Map<String, String> options = new HashMap<String, String>();
+		for (String[] option : DEFAULTS) {
+			options.put(option[0], option[1]);
+		}
+		for (String arg : args) {
+			int split = arg.indexOf('=');
+			if (split < 0 || !options.containsKey(arg.substring(0, split))) {
+				System.out.println("Usage: java " + Simulation.class.getName() + " [key=value]...");
+				for (String[] option : DEFAULTS) {
+					System.out.println(String.format(Locale.ENGLISH, "  %-10s %-8s %s", option[0], option[1], option[2]));
+				}
+				return;
+			}
+			options.put(arg.substring(0, split), arg.substring(split + 1));
+		}
+		new Simulation(options).run();
+	}
+
+	/**
+	 * Sets up the plugin, runs the simulation for its duration and prints a
+	 * report.
+	 * 
+	 * @throws InterruptedException if interrupted while running
+	 */
+	public void run() throws InterruptedException {
+		setUp();
+		long tick = getLong("tick");
+		long duration = getLong("duration") * 1000;
+		double messageChance = getDouble("rate") / 60000 * tick;
+		double ircChance = getDouble("irc-rate") / 1000 * tick;
+		float step = (float) (getDouble("speed") / 1000 * tick);
+		int ircStandIns = getInt("irc");
+		long delivered = received();
+		long allocated = allocated(false), allocatedWindChat = allocated(true);
+		long collections = collections(), collectionTime = collectionTime();
+		long maxTick = 0, maxPending = 0, sent = 0, ticks = 0;
+		long start = System.currentTimeMillis();
+		long nextTick = start;
+		while (nextTick - start < duration) {
+			long tickStart = System.nanoTime();
+			scheduler.tick(nextTick);
+			for (SimChatter walker : walkers) {
+				walker.move(random, step);
+			}
+			for (SimChatter chatter : chatters) {
+				if (random.nextDouble() < messageChance) {
+					chatter.chat(new ChatArguments("m" + stamp()));
+					sent++;
+				}
+			}
+			for (int i = 0; i < ircStandIns; i++) {
+				if (random.nextDouble() < ircChance) {
+					// The same path a bot takes for a routed inbound message
+					for (Channel channel : ircRoutes.getChannels("#irc" + i)) {
+						channel.broadcast(new ChatArguments("irc" + i + ": m" + stamp()));
+						sent++;
+					}
+				}
+			}
+			maxTick = Math.max(maxTick, System.nanoTime() - tickStart);
+			maxPending = Math.max(maxPending, harness.getPlugin().getBroadcastPipeline().getPending());
+			ticks++;
+			nextTick += tick;
+			long sleep = nextTick - System.currentTimeMillis();
+			if (sleep > 0) {
+				Thread.sleep(sleep);
+			}
+		}
+		// Let the pipeline finish what was accepted
+		long drainStart = System.currentTimeMillis();
+		while (harness.getPlugin().getBroadcastPipeline().getPending() > 0 && System.currentTimeMillis() - drainStart < 10000) {
+			Thread.sleep(10);
+		}
+		double seconds = (System.currentTimeMillis() - start) / 1000D;
+		delivered = received() - delivered;
+		allocated = allocated(false) - allocated;
+		allocatedWindChat = allocated(true) - allocatedWindChat;
+		collections = collections() - collections;
+		collectionTime = collectionTime() - collectionTime;
+		harness.close();
+
+		System.out.println("WindChat simulation");
+		for (String[] option : DEFAULTS) {
+			System.out.println(String.format(Locale.ENGLISH, "  %-10s %s", option[0], options.get(option[0])));
+		}
+		System.out.println(String.format(Locale.ENGLISH, "Throughput: %d messages (%.1f/s), %d deliveries (%.1f/s)", sent, sent / seconds, delivered, delivered / seconds));
+		System.out.println(String.format(Locale.ENGLISH, "Server thread: %d ticks, slowest tick %.2f ms", ticks, maxTick / 1e6));
+		System.out.println(String.format(Locale.ENGLISH, "Pipeline: at most %d broadcasts pending", maxPending));
+		System.out.println(String.format(Locale.ENGLISH, "Latency (%d samples): p50 %.2f ms, p90 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms",
+				latency.size(), latency.percentile(0.5) / 1e6, latency.percentile(0.9) / 1e6, latency.percentile(0.99) / 1e6, latency.percentile(0.999) / 1e6, latency.percentile(1) / 1e6));
+		if (allocated >= 0) {
+			System.out.println(String.format(Locale.ENGLISH, "Allocation: %.1f MB/s in total, %.1f MB/s on WindChat threads", allocated / seconds / 1e6, allocatedWindChat / seconds / 1e6));
+		} else {
+			System.out.println("Allocation: not supported by this JVM");
+		}
+		System.out.println(String.format(Locale.ENGLISH, "GC: %d collections, %d ms", collections, collectionTime));
+	}
+
+	private void setUp() {
+		Engine engine = Fakes.engine(scheduler.create());
+		harness = new Harness(engine, getInt("threads"), getInt("queue"));
+		WindChat plugin = harness.getPlugin();
+		World world = Fakes.proxy(World.class, new Fakes.Defaults());
+		int channelCount = Math.max(1, getInt("channels"));
+		int ranged = Math.min(channelCount, getInt("ranged"));
+		Channel[] channels = new Channel[channelCount];
+		for (int i = 0; i < channelCount; i++) {
+			channels[i] = harness.channel("channel" + i);
+			if (i < ranged) {
+				channels[i].setRadius(getInt("radius"));
+			}
+		}
+		float area = (float) getDouble("area");
+		double probes = getDouble("probes");
+		int count = getInt("chatters");
+		for (int i = 0; i < count; i++) {
+			Player player = Fakes.player("chatter" + i, random.nextDouble() < probes ? this : null);
+			SimChatter chatter = new SimChatter(plugin, player, world, area, random);
+			plugin.getChatters().add(chatter);
+			Channel home = channels[i % channelCount];
+			chatter.join(home, null, true);
+			if (channelCount > 1) {
+				chatter.join(channels[(i + 1) % channelCount], null, false);
+			}
+			chatters.add(chatter);
+			if (home.getRadius() > 0) {
+				walkers.add(chatter);
+			}
+		}
+		// Bridge each stand-in with one unranged channel
+		for (int i = 0; i < getInt("irc") && ranged < channelCount; i++) {
+			ircRoutes.link(channels[ranged + i % (channelCount - ranged)], Collections.singletonList("#irc" + i));
+		}
+		scheduler.tick(System.currentTimeMillis());
+		engine.getScheduler().scheduleSyncRepeatingTask(plugin, plugin.getSpatialIndex(), 0, ChatConfiguration.SPATIAL_UPDATE_INTERVAL.getInt(), TaskPriority.NORMAL);
+		engine.getScheduler().scheduleSyncRepeatingTask(plugin, new IrcInboundHandler(plugin), 0, 50, TaskPriority.NORMAL);
+	}
+
+	private long stamp() {
+		long seq = sequence++;
+		sendTimes[(int) (seq & (SEND_TIMES - 1))] = System.nanoTime();
+		return seq;
+	}
+
+	@Override
+	public void receive(Object[] message) {
+		long now = System.nanoTime();
+		if (message == null || message.length != 1 || !(message[0] instanceof ChatArguments)) {
+			return;
+		}
+		String line = ((ChatArguments) message[0]).getPlainString();
+		int end = line.length(), start = end;
+		while (start > 0 && Character.isDigit(line.charAt(start - 1))) {
+			start--;
+		}
+		if (start == end || start == 0 || line.charAt(start - 1) != 'm' || end - start > 18) {
+			return;
+		}
+		long seq = Long.parseLong(line.substring(start, end));
+		if (sequence - seq < SEND_TIMES) {
+			latency.record(now - sendTimes[(int) (seq & (SEND_TIMES - 1))]);
+		}
+	}
+
+	private long received() {
+		long received = 0;
+		for (Chatter chatter : chatters) {
+			received += Fakes.handler((Player) chatter.getParent()).getReceived();
+		}
+		return received;
+	}
+
+	private static long allocated(boolean windChatOnly) {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean allocation = (com.sun.management.ThreadMXBean) threads;
+		long total = 0;
+		for (ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds())) {
+			if (info == null || windChatOnly && !info.getThreadName().startsWith("WindChat-")) {
+				continue;
+			}
+			total += Math.max(0, allocation.getThreadAllocatedBytes(info.getThreadId()));
+		}
+		return total;
+	}
+
+	private static long collections() {
+		long collections = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			collections += Math.max(0, gc.getCollectionCount());
+		}
+		return collections;
+	}
+
+	private static long collectionTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+		}
+		return time;
+	}
+
+	private int getInt(String key) {
+		return Integer.parseInt(options.get(key));
+	}
+
+	private long getLong(String key) {
+		return Long.parseLong(options.get(key));
+	}
+
+	private double getDouble(String key) {
+		return Double.parseDouble(options.get(key));
+	}
+}
@@ -21,14 +21,20 @@
  */
 package net.windwaker.chat;
 
+import net.windwaker.chat.chan.BroadcastPipeline;
+import net.windwaker.chat.chan.Channel;
+import net.windwaker.chat.chan.SpatialIndex;
 import net.windwaker.chat.cmd.ChatCommands;
 import net.windwaker.chat.handler.DateHandler;
+import net.windwaker.chat.handler.IrcInboundHandler;
 import net.windwaker.chat.handler.LocalChatHandler;
+import net.windwaker.chat.handler.ReloadHandler;
 import net.windwaker.chat.io.ChatLogger;
 import net.windwaker.chat.io.yaml.BotConfiguration;
 import net.windwaker.chat.io.yaml.ChannelConfiguration;
 import net.windwaker.chat.io.yaml.ChatConfiguration;
 import net.windwaker.chat.io.yaml.ChatterConfiguration;
+import net.windwaker.chat.metrics.Metrics;
 import net.windwaker.chat.util.DefaultPermissionNodes;
 
 import org.spout.api.Engine;
@@ -40,6 +46,8 @@ import org.spout.api.command.annotated.SimpleAnnotatedCommandExecutorFactory;
 import org.spout.api.command.annotated.SimpleInjector;
 import org.spout.api.entity.Player;
 import org.spout.api.plugin.CommonPlugin;
+import org.spout.api.scheduler.Scheduler;
+import org.spout.api.scheduler.TaskPriority;
 
 /**
  * Chat plugin for the Spout platform.
@@ -53,6 +61,9 @@ public class WindChat extends CommonPlugin {
 	private ChatterConfiguration chatters;
 	private ChannelConfiguration channels;
 	private BotConfiguration bots;
+	private BroadcastPipeline broadcastPipeline;
+	private SpatialIndex spatialIndex;
+	private Metrics metrics;
 
 	/**
 	 * Gets the collection of {@link net.windwaker.chat.chan.Chatter}s on the 
@@ -94,6 +105,43 @@ public class WindChat extends CommonPlugin {
 		return dateHandler;
 	}
 
+	/**
+	 * Gets the {@link BroadcastPipeline} that processes channel broadcasts.
+	 * 
+	 * @return broadcast pipeline
+	 */
+	public BroadcastPipeline getBroadcastPipeline() {
+		return broadcastPipeline;
+	}
+
+	/**
+	 * Gets the {@link SpatialIndex} of chatter positions used by ranged
+	 * channels.
+	 * 
+	 * @return spatial index
+	 */
+	public SpatialIndex getSpatialIndex() {
+		return spatialIndex;
+	}
+
+	/**
+	 * Gets the {@link Metrics} of the plugin.
+	 * 
+	 * @return metrics
+	 */
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Gets the general settings of the plugin.
+	 * 
+	 * @return chat configuration
+	 */
+	public ChatConfiguration getChatConfiguration() {
+		return config;
+	}
+
 	/**
 	 * Gets the {@link ChatLogger} of the plugin.
 	 * 
@@ -110,13 +158,31 @@ public class WindChat extends CommonPlugin {
 		// Create then load config
 		config = new ChatConfiguration(this);
 		config.load();
-		// Create then load bots
+		// Keep counting across reloads
+		if (metrics == null) {
+			metrics = new Metrics(this);
+		}
+		// Disconnect old bots then load bots
+		if (bots != null) {
+			bots.close();
+		}
 		bots = new BotConfiguration(this);
 		bots.load();
-		// Create then load channels
+		// Start or restart the broadcast pipeline
+		if (broadcastPipeline != null) {
+			broadcastPipeline.shutdown();
+		}
+		broadcastPipeline = new BroadcastPipeline(this, ChatConfiguration.BROADCAST_THREADS.getInt(), ChatConfiguration.BROADCAST_QUEUE_SIZE.getInt());
+		// Write pending changes of the old channels then load channels
+		if (channels != null) {
+			channels.close();
+		}
 		channels = new ChannelConfiguration(this);
 		channels.load();
-		// Create then load chatters
+		// Write pending changes of the old chatters then load chatters
+		if (chatters != null) {
+			chatters.close();
+		}
 		chatters = new ChatterConfiguration(this);
 		chatters.load();
 		// Load rest of channel data
@@ -128,19 +194,60 @@ public class WindChat extends CommonPlugin {
 				chatters.load(player);
 			}
 		}
+		// Index the positions of loaded chatters
+		spatialIndex = new SpatialIndex(this, ChatConfiguration.SPATIAL_CELL_SIZE.getInt());
+		spatialIndex.run();
 		// Load date formats
 		dateHandler = new DateHandler();
 		dateHandler.init();
 		// Create chat handler
 		chatHandler = new LocalChatHandler(this);
 		// Start or restart the logger
+		if (logger != null) {
+			logger.stop();
+		}
 		logger = new ChatLogger(this);
 		startLogger();
+		// Restart sampling with the loaded settings
+		metrics.start(ChatConfiguration.METRICS_INTERVAL.getLong(), ChatConfiguration.METRICS_SNAPSHOT.getBoolean());
 		// De-register then register commands
 		CommandRegistrationsFactory<Class<?>> commandRegFactory = new AnnotatedCommandRegistrationFactory(engine, new SimpleInjector(this), new SimpleAnnotatedCommandExecutorFactory());
 		RootCommand cmd = engine.getRootCommand();
 		cmd.removeChildren(this);
 		cmd.addSubCommands(this, ChatCommands.class, commandRegFactory);
+		// Re-schedule tasks
+		scheduleTasks();
+	}
+
+	/**
+	 * Schedules the repeating tasks of the plugin, cancelling any that were
+	 * scheduled before.
+	 */
+	private void scheduleTasks() {
+		Scheduler scheduler = getEngine().getScheduler();
+		scheduler.cancelTasks(this);
+		scheduler.scheduleSyncRepeatingTask(this, spatialIndex, 0, ChatConfiguration.SPATIAL_UPDATE_INTERVAL.getInt(), TaskPriority.NORMAL);
+		scheduler.scheduleSyncRepeatingTask(this, new IrcInboundHandler(this), 0, 50, TaskPriority.NORMAL);
+		long reloadInterval = ChatConfiguration.RELOAD_INTERVAL.getLong();
+		if (reloadInterval > 0) {
+			scheduler.scheduleSyncRepeatingTask(this, new ReloadHandler(this), reloadInterval, reloadInterval, TaskPriority.NORMAL);
+		}
+	}
+
+	/**
+	 * Applies the settings that take effect without reloading the plugin
+	 * after 'config.yml' was changed. Thread counts and queue sizes still
+	 * need a full reload.
+	 */
+	public void applySettings() {
+		dateHandler.init();
+		for (Channel channel : channels.get()) {
+			channel.invalidateCensorMatcher();
+		}
+		chatters.invalidatePermissions();
+		metrics.start(ChatConfiguration.METRICS_INTERVAL.getLong(), ChatConfiguration.METRICS_SNAPSHOT.getBoolean());
+		scheduleTasks();
+		getLogger().info("Reloaded config.yml.");
 	}
 
 	/**
@@ -150,6 +257,7 @@ public class WindChat extends CommonPlugin {
 		// Save all data
 		config.save();
 		bots.save();
+		channels.flush();
 		channels.save();
 		chatters.save();
 	}
@@ -197,8 +305,14 @@ public class WindChat extends CommonPlugin {
 
 	@Override
 	public void onDisable() {
+		// Finish queued broadcasts
+		broadcastPipeline.shutdown();
+		metrics.stop();
 		// Save data
 		save();
+		channels.close();
+		chatters.close();
+		bots.close();
 		// Finalize logger
 		logger.stop();
 		getLogger().info("WindChat " + getDescription().getVersion() + " disabled.");
@@ -0,0 +1,283 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.chan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.windwaker.chat.WindChat;
+import net.windwaker.chat.util.NamedThreadFactory;
+import net.windwaker.chat.util.Placeholders;
+
+import org.spout.api.chat.ChatArguments;
+import org.spout.api.chat.style.ChatStyle;
+
+/**
+ * Moves the work of a {@link Channel} broadcast off of the calling thread.
+ * A broadcast is accepted on the calling thread and then filtered, rendered,
+ * fanned out and logged on a dedicated executor. Broadcasts in the same
+ * channel are always processed in the order they were accepted.
+ */
+public class BroadcastPipeline {
+	private final WindChat plugin;
+	private final ExecutorService executor;
+	private final ConcurrentMap<Channel, Lane> lanes = new ConcurrentHashMap<Channel, Lane>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final int capacity;
+
+	/**
+	 * Constructs a new BroadcastPipeline.
+	 * 
+	 * @param plugin
+	 * @param threads amount of worker threads
+	 * @param capacity maximum amount of queued broadcasts
+	 */
+	public BroadcastPipeline(WindChat plugin, int threads, int capacity) {
+		this.plugin = plugin;
+		this.capacity = capacity;
+		executor = Executors.newFixedThreadPool(Math.max(1, threads), new NamedThreadFactory("Broadcast"));
+	}
+
+	/**
+	 * Accepts a broadcast into the pipeline. The listeners of the channel are
+	 * snapshot on the calling thread so later joins and leaves do not affect
+	 * a broadcast that is already queued.
+	 * 
+	 * @param channel to broadcast in
+	 * @param sender of the message, may be null
+	 * @param message to broadcast
+	 * @return false if the pipeline is full or shut down and the broadcast was
+	 *         dropped
+	 */
+	public boolean accept(Channel channel, Chatter sender, ChatArguments message) {
+		Broadcast broadcast = new Broadcast(channel, sender, message, channel.getListenerSnapshot(), true);
+		boolean shutdown = executor.isShutdown();
+		if (shutdown || pending.incrementAndGet() > capacity) {
+			if (!shutdown) {
+				pending.decrementAndGet();
+			}
+			channel.getMetrics().dropped();
+			String reason = shutdown ? "Broadcast pipeline is shut down" : "Broadcast queue is full";
+			plugin.getLogger().warning(reason + ", dropping message in channel '" + channel.getName() + "'.");
+			if (sender != null) {
+				sender.getParent().sendMessage(ChatStyle.RED, "The channel is busy, your message was not sent.");
+			}
+			return false;
+		}
+		Lane lane = lanes.get(channel);
+		if (lane == null) {
+			Lane created = new Lane();
+			lane = lanes.putIfAbsent(channel, created);
+			if (lane == null) {
+				lane = created;
+			}
+		}
+		lane.queue.add(broadcast);
+		return lane.schedule();
+	}
+
+	/**
+	 * Runs every stage of a broadcast on the calling thread.
+	 * 
+	 * @param channel to broadcast in
+	 * @param sender of the message, may be null
+	 * @param message to broadcast
+	 */
+	public void process(Channel channel, Chatter sender, ChatArguments message) {
+		process(new Broadcast(channel, sender, message, channel.getListenerSnapshot(), false));
+	}
+
+	/**
+	 * Gets the amount of broadcasts that are waiting to be processed.
+	 * 
+	 * @return pending broadcasts
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * Stops accepting broadcasts and waits for the queued ones to finish.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+				plugin.getLogger().warning("Timed out waiting for " + pending.get() + " broadcasts to finish.");
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void process(Broadcast broadcast) {
+		Chatter[] audience = filter(broadcast);
+		ChatArguments line = render(broadcast);
+		fanOut(audience, line);
+		broadcast.channel.getMetrics().broadcast(audience.length, System.nanoTime() - broadcast.accepted);
+		sideEffects(broadcast, line);
+	}
+
+	private Chatter[] filter(Broadcast broadcast) {
+		Chatter[] listeners = broadcast.listeners;
+		Chatter sender = broadcast.sender;
+		if (sender == null) {
+			return listeners;
+		}
+		// Ranged channels only visit the chatters near the sender
+		Channel channel = broadcast.channel;
+		int radius = channel.getRadius();
+		if (radius > 0) {
+			List<Chatter> nearby = new ArrayList<Chatter>();
+			if (plugin.getSpatialIndex().query(sender, channel, radius, nearby)) {
+				return nearby.toArray(new Chatter[nearby.size()]);
+			}
+		}
+		int size = 0;
+		Chatter[] audience = new Chatter[listeners.length];
+		for (Chatter chatter : listeners) {
+			if (chatter.canHear(sender, channel)) {
+				audience[size++] = chatter;
+			}
+		}
+		if (size == audience.length) {
+			return audience;
+		}
+		Chatter[] trimmed = new Chatter[size];
+		System.arraycopy(audience, 0, trimmed, 0, size);
+		return trimmed;
+	}
+
+	private ChatArguments render(Broadcast broadcast) {
+		return broadcast.channel.getTemplate().render(Placeholders.MESSAGE, broadcast.message);
+	}
+
+	private void fanOut(Chatter[] audience, ChatArguments line) {
+		for (Chatter chatter : audience) {
+			chatter.getParent().sendMessage(line);
+		}
+	}
+
+	private void sideEffects(Broadcast broadcast, ChatArguments line) {
+		Channel channel = broadcast.channel;
+		if (channel.getRadius() <= 0) {
+			channel.getHistory().add(line, System.currentTimeMillis());
+		}
+		IrcBot bot = channel.getBot();
+		if (bot != null && channel.isIrcEnabled()) {
+			// Never hold up the server thread for a slow IRC link
+			bot.sendMessage(channel, broadcast.message, broadcast.queued);
+		}
+		plugin.getChatLogger().log(broadcast.message);
+	}
+
+	/**
+	 * A single accepted broadcast.
+	 */
+	private static class Broadcast {
+		private final Channel channel;
+		private final Chatter sender;
+		private final ChatArguments message;
+		private final Chatter[] listeners;
+		// Whether it runs on a worker instead of the calling thread
+		private final boolean queued;
+		private final long accepted = System.nanoTime();
+
+		private Broadcast(Channel channel, Chatter sender, ChatArguments message, Chatter[] listeners, boolean queued) {
+			this.channel = channel;
+			this.sender = sender;
+			this.message = message;
+			this.listeners = listeners;
+			this.queued = queued;
+		}
+	}
+
+	/**
+	 * The queue of broadcasts of a single channel. At most one worker drains
+	 * a lane at a time which keeps broadcasts in a channel ordered.
+	 */
+	private class Lane implements Runnable {
+		private final Queue<Broadcast> queue = new ConcurrentLinkedQueue<Broadcast>();
+		private final AtomicBoolean running = new AtomicBoolean();
+
+		/**
+		 * Makes sure a worker drains the lane.
+		 * 
+		 * @return false if the pipeline was shut down and the queued
+		 *         broadcasts were dropped
+		 */
+		private boolean schedule() {
+			if (!running.compareAndSet(false, true)) {
+				return true;
+			}
+			try {
+				executor.execute(this);
+				return true;
+			} catch (RejectedExecutionException e) {
+				// Shut down since the broadcasts were accepted, nothing will drain them
+				int dropped = 0;
+				Broadcast broadcast;
+				while ((broadcast = queue.poll()) != null) {
+					pending.decrementAndGet();
+					broadcast.channel.getMetrics().dropped();
+					dropped++;
+				}
+				running.set(false);
+				if (dropped > 0) {
+					plugin.getLogger().warning("Broadcast pipeline is shut down, dropped " + dropped + " queued broadcasts.");
+				}
+				return false;
+			}
+		}
+
+		@Override
+		public void run() {
+			Broadcast broadcast;
+			while ((broadcast = queue.poll()) != null) {
+				try {
+					process(broadcast);
+				} catch (Exception e) {
+					e.printStackTrace();
+				} finally {
+					pending.decrementAndGet();
+				}
+			}
+			running.set(false);
+			// Something may have been queued after the last poll
+			if (!queue.isEmpty()) {
+				schedule();
+			}
+		}
+	}
+}
@@ -21,8 +21,12 @@
  */
 package net.windwaker.chat.chan;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -32,7 +36,13 @@ import net.windwaker.chat.event.channel.ChannelBroadcastEvent;
 import net.windwaker.chat.event.channel.ChannelCensorEvent;
 import net.windwaker.chat.event.channel.ChannelMuteChangeEvent;
 import net.windwaker.chat.event.channel.ChannelUnbanEvent;
-import net.windwaker.chat.util.Placeholders;
+import net.windwaker.chat.io.ModerationJournal.Action;
+import net.windwaker.chat.io.yaml.ChatConfiguration;
+import net.windwaker.chat.metrics.ChannelMetrics;
+import net.windwaker.chat.util.CensorMatcher;
+import net.windwaker.chat.util.ChannelPermission;
+import net.windwaker.chat.util.SnapshotSet;
+import net.windwaker.chat.util.Template;
 
 import org.spout.api.chat.ChatArguments;
 import org.spout.api.chat.style.ChatStyle;
@@ -44,14 +54,21 @@ import org.spout.api.util.Named;
 public class Channel implements Named {
 	private final WindChat plugin;
 	private final String name;
-	private final Set<String> banned = new HashSet<String>(), muted = new HashSet<String>();
-	private final Set<Chatter> listeners = new HashSet<Chatter>();
-	private final Map<String, String> censoredWords = new HashMap<String, String>();
+	private final SnapshotSet<String> banned = new SnapshotSet<String>(new String[0]), muted = new SnapshotSet<String>(new String[0]);
+	private final SnapshotSet<Chatter> listeners = new SnapshotSet<Chatter>(new Chatter[0]);
+	private final SnapshotSet<String> ircChannels = new SnapshotSet<String>(new String[0]);
+	// Replaced, never changed, so the saving thread can read it without locking
+	private volatile Map<String, String> censoredWords = Collections.emptyMap();
 	private IrcBot bot;
 	private int radius;
 	private String password;
 	private boolean autoSave, inviteOnly, ircEnabled;
 	private ChatArguments joinMessage, leaveMessage, format, banMessage;
+	private Template template;
+	private volatile CensorMatcher censorMatcher;
+	private final String[] permissionNodes = new String[ChannelPermission.values().length];
+	private final ChannelMetrics metrics = new ChannelMetrics();
+	private final ChannelHistory history = new ChannelHistory(ChatConfiguration.HISTORY_SIZE.getInt(), ChatConfiguration.HISTORY_WINDOW.getLong());
 
 	/**
 	 * Constructs a new channel object
@@ -61,6 +78,19 @@ public class Channel implements Named {
 	public Channel(WindChat plugin, String name) {
 		this.name = name;
 		this.plugin = plugin;
+		for (ChannelPermission permission : ChannelPermission.values()) {
+			permissionNodes[permission.ordinal()] = permission.getNode(name);
+		}
+	}
+
+	/**
+	 * Gets the permission node of an action in this channel.
+	 * 
+	 * @param permission action
+	 * @return permission node
+	 */
+	public String getPermissionNode(ChannelPermission permission) {
+		return permissionNodes[permission.ordinal()];
 	}
 
 	/**
@@ -93,10 +123,45 @@ public class Channel implements Named {
 		return bot.getName();
 	}
 
+	/**
+	 * Gets the {@link IrcBot} the channel is linked to.
+	 * 
+	 * @return the bot or null if not linked
+	 */
+	public IrcBot getBot() {
+		return bot;
+	}
+
+	/**
+	 * Gets the IRC channels this channel is bridged with. If empty the channel
+	 * is bridged with every IRC channel of its bot.
+	 * 
+	 * @return linked IRC channels
+	 */
+	public Set<String> getIrcChannels() {
+		return ircChannels;
+	}
+
+	/**
+	 * Sets the IRC channels this channel is bridged with.
+	 * 
+	 * @param ircChannels to bridge with, or none for every channel of the bot
+	 */
+	public void setIrcChannels(Collection<String> ircChannels) {
+		this.ircChannels.set(ircChannels);
+		if (bot != null) {
+			bot.joinLocal(this);
+		}
+		if (autoSave) {
+			save();
+		}
+	}
+
 	/**
 	 * Links the channel to the specified {@link IrcBot} all messages in this
-	 * channel will be sent to the bot, and all messages incoming in the bot
-	 * will be broadcast in this channel.
+	 * channel will be sent to the IRC channels it is bridged with, and all
+	 * messages incoming in those IRC channels will be broadcast in this
+	 * channel.
 	 * 
 	 * @param bot to link to 
 	 */
@@ -108,7 +173,10 @@ public class Channel implements Named {
 			throw new IllegalArgumentException("Cannot connect a null bot.");
 		}
 		if (!bot.isConnected()) {
-			bot.connect();
+			bot.connectAsync();
+		}
+		if (this.bot != null && this.bot != bot) {
+			this.bot.leaveLocal(this);
 		}
 		this.bot = bot;
 		bot.joinLocal(this);
@@ -174,14 +242,21 @@ public class Channel implements Named {
 	 */
 	public void censor(String word, String replacement) {
 		ChannelCensorEvent event = plugin.getEngine().getEventManager().callEvent(new ChannelCensorEvent(this, word, replacement));
-		censoredWords.put(event.getWord().toLowerCase(), event.getReplacement());
+		String censored = event.getWord().toLowerCase();
+		synchronized (this) {
+			Map<String, String> words = new HashMap<String, String>(censoredWords);
+			words.put(censored, event.getReplacement());
+			censoredWords = Collections.unmodifiableMap(words);
+		}
+		censorMatcher = null;
 		if (autoSave) {
-			save();
+			journal(Action.CENSOR, censored, event.getReplacement());
 		}
 	}
 
 	/**
-	 * Gets the censored words
+	 * Gets the censored words. The map cannot be changed and does not reflect
+	 * later changes.
 	 * 
 	 * @return censored words
 	 */
@@ -213,7 +288,7 @@ public class Channel implements Named {
 		}
 		muted.add(name);
 		if (autoSave) {
-			save();
+			journal(Action.MUTE, name, null);
 		}
 	}
 
@@ -231,7 +306,7 @@ public class Channel implements Named {
 		}
 		muted.remove(name);
 		if (autoSave) {
-			save();
+			journal(Action.UNMUTE, name, null);
 		}
 	}
 
@@ -295,7 +370,7 @@ public class Channel implements Named {
 		}
 		banned.add(name);
 		if (autoSave) {
-			save();
+			journal(Action.BAN, name, null);
 		}
 	}
 
@@ -311,7 +386,7 @@ public class Channel implements Named {
 		}
 		banned.remove(event.getName());
 		if (autoSave) {
-			save();
+			journal(Action.UNBAN, event.getName(), null);
 		}
 	}
 
@@ -334,6 +409,24 @@ public class Channel implements Named {
 		return banned.contains(name);
 	}
 
+	/**
+	 * Replaces the banned and muted names and the censored words of the
+	 * channel at once, without calling events or saving. Used to restore a
+	 * channel that was already moderated before.
+	 * 
+	 * @param banned names
+	 * @param muted names
+	 * @param censoredWords words and their replacements
+	 */
+	public void restore(Collection<String> banned, Collection<String> muted, Map<String, String> censoredWords) {
+		this.banned.set(banned);
+		this.muted.set(muted);
+		synchronized (this) {
+			this.censoredWords = Collections.unmodifiableMap(new HashMap<String, String>(censoredWords));
+		}
+		censorMatcher = null;
+	}
+
 	/**
 	 * Gets the message displayed when being rejected from entering a server 
 	 * because of being banned.
@@ -394,11 +487,40 @@ public class Channel implements Named {
 	 */
 	public void setFormat(ChatArguments format) {
 		this.format = format;
+		template = format == null ? null : Template.compile(format);
 		if (autoSave) {
 			save();
 		}
 	}
 
+	/**
+	 * Gets the load of the channel.
+	 * 
+	 * @return metrics
+	 */
+	public ChannelMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Gets the recent lines of the channel. Ranged channels keep no history
+	 * since not every listener could hear every line.
+	 * 
+	 * @return history
+	 */
+	public ChannelHistory getHistory() {
+		return history;
+	}
+
+	/**
+	 * Gets the compiled template of the general format of the channel.
+	 * 
+	 * @return template
+	 */
+	public Template getTemplate() {
+		return template;
+	}
+
 	/**
 	 * Gets the message displayed when joining the channel
 	 * 
@@ -478,7 +600,22 @@ public class Channel implements Named {
 	 * @return true if in listening set
 	 */
 	public boolean isListening(String name) {
-		return listeners.contains(name);
+		for (Chatter chatter : listeners) {
+			if (chatter.getName().equalsIgnoreCase(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether or not the chatter is listening to the channel
+	 * 
+	 * @param chatter
+	 * @return true if in listening set
+	 */
+	public boolean isListening(Chatter chatter) {
+		return listeners.contains(chatter);
 	}
 
 	/**
@@ -490,6 +627,17 @@ public class Channel implements Named {
 		return listeners;
 	}
 
+	/**
+	 * Gets the listeners of the channel as they are right now. The array is
+	 * shared and must not be changed, later joins and leaves publish a new
+	 * one instead.
+	 * 
+	 * @return current listeners
+	 */
+	public Chatter[] getListenerSnapshot() {
+		return listeners.snapshot();
+	}
+
 	/**
 	 * Adds a listener to the channel
 	 * 
@@ -502,13 +650,50 @@ public class Channel implements Named {
 		}
 	}
 
+	/**
+	 * Adds listeners to the channel at once without saving. Used to restore
+	 * chatters that were already listening before.
+	 * 
+	 * @param chatters to add
+	 */
+	public void restoreListeners(Collection<Chatter> chatters) {
+		listeners.addAll(chatters);
+	}
+
+	/**
+	 * Removes a listener from the channel without saving. Used for chatters
+	 * that leave the server, which rejoin their channels from their profile.
+	 * 
+	 * @param chatter to remove
+	 */
+	public void detachListener(Chatter chatter) {
+		listeners.remove(chatter);
+	}
+
 	/**
 	 * Removes a listener from the channel.
 	 * 
 	 * @param chatterName
 	 */
 	public void removeListener(String chatterName) {
-		listeners.remove(chatterName);
+		Iterator<Chatter> i = listeners.iterator();
+		while (i.hasNext()) {
+			if (i.next().getName().equalsIgnoreCase(chatterName)) {
+				i.remove();
+			}
+		}
+		if (autoSave) {
+			save();
+		}
+	}
+
+	/**
+	 * Removes a listener from the channel.
+	 * 
+	 * @param chatter
+	 */
+	public void removeListener(Chatter chatter) {
+		listeners.remove(chatter);
 		if (autoSave) {
 			save();
 		}
@@ -532,40 +717,82 @@ public class Channel implements Named {
 		ChannelBroadcastEvent event = plugin.getEngine().getEventManager().callEvent(new ChannelBroadcastEvent(this, sender, message));
 		sender = event.getSender();
 		message = event.getMessage();
-		Placeholders.format(Placeholders.MESSAGE, format, message);
-		for (Chatter chatter : listeners) {
-			if (sender != null && !chatter.canHear(sender, this)) {
-				continue;
-			}
-			chatter.getParent().sendMessage(format);
+		BroadcastPipeline pipeline = plugin.getBroadcastPipeline();
+		if (ChatConfiguration.ASYNC_BROADCAST.getBoolean()) {
+			pipeline.accept(this, sender, message);
+		} else {
+			pipeline.process(this, sender, message);
 		}
-		if (bot != null && ircEnabled) {
-			bot.sendMessage(message);
-		}
-		plugin.getChatLogger().log(message);
 	}
 
 	/**
-	 * Censors a message from the censored word list.
+	 * Censors a message from the censored word list. Only the text of the
+	 * message is censored, styles are left as they are.
 	 * 
 	 * @param args
-	 * @return censored message
+	 * @return censored message, or the same instance if nothing was censored
 	 */
 	public ChatArguments censorMessage(ChatArguments args) {
-		String str = args.asString();
-		for (String word : str.split(" ")) {
-			if (censoredWords.containsKey(word.toLowerCase())) {
-				str = str.replace(word, censoredWords.get(word.toLowerCase()));
+		CensorMatcher matcher = getCensorMatcher();
+		if (matcher.isEmpty()) {
+			return args;
+		}
+		List<Object> elements = args.getArguments();
+		List<Object> censored = null;
+		for (int i = 0; i < elements.size(); i++) {
+			Object element = elements.get(i);
+			if (!(element instanceof String)) {
+				continue;
+			}
+			String str = (String) element;
+			String replaced = matcher.censor(str);
+			if (replaced == str) {
+				continue;
 			}
+			if (censored == null) {
+				censored = new ArrayList<Object>(elements);
+			}
+			censored.set(i, replaced);
+		}
+		if (censored == null) {
+			return args;
+		}
+		metrics.censored();
+		return new ChatArguments(censored);
+	}
+
+	/**
+	 * Gets the matcher of the censored words, building it if the words have
+	 * changed since it was last built.
+	 * 
+	 * @return censor matcher
+	 */
+	public CensorMatcher getCensorMatcher() {
+		CensorMatcher matcher = censorMatcher;
+		if (matcher == null) {
+			matcher = new CensorMatcher(censoredWords, ChatConfiguration.CENSOR_WHOLE_WORDS.getBoolean());
+			censorMatcher = matcher;
 		}
-		return ChatArguments.fromFormatString(str);
+		return matcher;
 	}
 
 	/**
-	 * Saves the channel to disk
+	 * Makes the censor matcher be built again on its next use, for when the
+	 * settings it was built with changed.
+	 */
+	public void invalidateCensorMatcher() {
+		censorMatcher = null;
+	}
+
+	/**
+	 * Schedules the channel to be saved to disk
 	 */
 	public void save() {
-		plugin.getChannels().save(this);
+		plugin.getChannels().markDirty(this);
+	}
+
+	private void journal(Action action, String subject, String value) {
+		plugin.getChannels().journal(this, action, subject, value);
 	}
 
 	@Override
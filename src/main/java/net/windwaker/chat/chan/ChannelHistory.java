@@ -0,0 +1,121 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.chan;
+
+import org.spout.api.chat.ChatArguments;
+import org.spout.api.command.CommandSource;
+
+/**
+ * A fixed size ring of the most recent rendered lines of a {@link Channel}.
+ * The ring is allocated once, adding a line only overwrites the oldest slot.
+ */
+public class ChannelHistory {
+	private final ChatArguments[] lines;
+	private final long[] times;
+	private final long window;
+	private int head, size;
+
+	/**
+	 * Constructs a new history.
+	 * 
+	 * @param capacity maximum amount of lines kept
+	 * @param window in milliseconds lines are replayed for, or 0 for no limit
+	 */
+	public ChannelHistory(int capacity, long window) {
+		lines = new ChatArguments[Math.max(0, capacity)];
+		times = new long[lines.length];
+		this.window = window;
+	}
+
+	/**
+	 * Adds a rendered line to the history, replacing the oldest line if full.
+	 * 
+	 * @param line to add
+	 * @param time the line was sent at
+	 */
+	public synchronized void add(ChatArguments line, long time) {
+		if (lines.length == 0) {
+			return;
+		}
+		lines[head] = line;
+		times[head] = time;
+		head = (head + 1) % lines.length;
+		if (size < lines.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * Sends the lines within the time window to the specified source, oldest
+	 * first.
+	 * 
+	 * @param source to send to
+	 * @param now current time
+	 * @return amount of lines sent
+	 */
+	public int replay(CommandSource source, long now) {
+		ChatArguments[] recent;
+		synchronized (this) {
+			int start = (head - size + lines.length) % Math.max(1, lines.length);
+			int skip = 0;
+			while (skip < size && window > 0 && now - times[(start + skip) % lines.length] > window) {
+				skip++;
+			}
+			recent = new ChatArguments[size - skip];
+			for (int i = 0; i < recent.length; i++) {
+				recent[i] = lines[(start + skip + i) % lines.length];
+			}
+		}
+		for (ChatArguments line : recent) {
+			source.sendMessage(line);
+		}
+		return recent.length;
+	}
+
+	/**
+	 * Removes every line from the history.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < lines.length; i++) {
+			lines[i] = null;
+		}
+		head = size = 0;
+	}
+
+	/**
+	 * Gets the amount of lines in the history.
+	 * 
+	 * @return amount of lines
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the maximum amount of lines kept.
+	 * 
+	 * @return capacity
+	 */
+	public int getCapacity() {
+		return lines.length;
+	}
+}
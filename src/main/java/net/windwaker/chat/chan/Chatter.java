@@ -21,8 +21,12 @@
  */
 package net.windwaker.chat.chan;
 
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.windwaker.chat.WindChat;
 import net.windwaker.chat.event.chatter.ChatterChatEvent;
@@ -31,14 +35,18 @@ import net.windwaker.chat.event.chatter.ChatterJoinEvent;
 import net.windwaker.chat.event.chatter.ChatterKickEvent;
 import net.windwaker.chat.event.chatter.ChatterLeaveEvent;
 import net.windwaker.chat.io.yaml.ChatConfiguration;
+import net.windwaker.chat.util.ChannelPermission;
 import net.windwaker.chat.util.Format;
 import net.windwaker.chat.util.Placeholders;
+import net.windwaker.chat.util.Template;
 
 import org.spout.api.chat.ChatArguments;
+import org.spout.api.chat.Placeholder;
 import org.spout.api.chat.style.ChatStyle;
 import org.spout.api.command.CommandSource;
 import org.spout.api.data.ValueHolder;
 import org.spout.api.entity.Player;
+import org.spout.api.geo.discrete.Point;
 import org.spout.api.util.Named;
 
 public class Chatter implements Named {
@@ -49,6 +57,8 @@ public class Chatter implements Named {
 	private ChatArguments quitMessage;
 	private boolean autoSave;
 	private Chatter lastSender;
+	private final Map<String, Boolean> permissions = new ConcurrentHashMap<String, Boolean>();
+	private volatile long permissionsExpire;
 
 	/**
 	 * Constructs a new chatter object
@@ -68,19 +78,15 @@ public class Chatter implements Named {
 	 * @param message to send
 	 */
 	public void sendPrivateMessage(Chatter sender, ChatArguments message) {
+		plugin.getMetrics().privateMessage();
 		lastSender = sender;
+		Template template = Template.cached(ChatConfiguration.PRIVATE_MESSAGE_FORMAT.getString());
+		Placeholder[] keys = {Placeholders.NAME, Placeholders.MESSAGE, Placeholders.ADDRESS};
+		ChatArguments name = new ChatArguments(sender.getParent().getName());
 		// Incoming
-		ChatArguments from = ChatArguments.fromFormatString(ChatConfiguration.PRIVATE_MESSAGE_FORMAT.getString());
-		Placeholders.format(Placeholders.NAME, from, new ChatArguments(sender.getParent().getName()));
-		Placeholders.format(Placeholders.MESSAGE, from, message);
-		Placeholders.format(Placeholders.ADDRESS, from, new ChatArguments("From"));
-		parent.sendMessage(from);
+		parent.sendMessage(template.render(keys, new ChatArguments[] {name, message, new ChatArguments("From")}));
 		// Outgoing
-		ChatArguments to = ChatArguments.fromFormatString(ChatConfiguration.PRIVATE_MESSAGE_FORMAT.getString());
-		Placeholders.format(Placeholders.NAME, to, new ChatArguments(sender.getParent().getName()));
-		Placeholders.format(Placeholders.MESSAGE, to, message);
-		Placeholders.format(Placeholders.ADDRESS, to, new ChatArguments("To"));
-		sender.getParent().sendMessage(to);
+		sender.getParent().sendMessage(template.render(keys, new ChatArguments[] {name, message, new ChatArguments("To")}));
 	}
 
 	/**
@@ -138,11 +144,62 @@ public class Chatter implements Named {
 	 * @return true if can hear
 	 */
 	public boolean canHear(Chatter sender, Channel channel) {
-		if (!(parent instanceof Player) || !(sender instanceof Player)) {
+		int radius = channel.getRadius();
+		if (radius <= 0) {
 			return true;
 		}
-		int radius = channel.getRadius();
-		return ((Player) parent).getScene().getPosition().getDistance(((Player) sender.getParent()).getScene().getPosition()) < radius || radius <= 0;
+		Point position = getPosition(), senderPosition = sender.getPosition();
+		if (position == null || senderPosition == null) {
+			return true;
+		}
+		double dx = position.getX() - senderPosition.getX();
+		double dy = position.getY() - senderPosition.getY();
+		double dz = position.getZ() - senderPosition.getZ();
+		return dx * dx + dy * dy + dz * dz < (double) radius * radius;
+	}
+
+	/**
+	 * Gets the position of the chatter.
+	 * 
+	 * @return position or null if the chatter is not a player
+	 */
+	public Point getPosition() {
+		if (!(parent instanceof Player)) {
+			return null;
+		}
+		return ((Player) parent).getScene().getPosition();
+	}
+
+	/**
+	 * Whether the chatter may perform an action in the specified channel.
+	 * Decisions are cached until they expire or are invalidated.
+	 * 
+	 * @param channel
+	 * @param permission action
+	 * @return true if permitted
+	 */
+	public boolean hasPermission(Channel channel, ChannelPermission permission) {
+		long now = System.currentTimeMillis();
+		if (now >= permissionsExpire) {
+			permissions.clear();
+			permissionsExpire = now + ChatConfiguration.PERMISSION_CACHE_TTL.getLong();
+		}
+		String node = channel.getPermissionNode(permission);
+		Boolean decision = permissions.get(node);
+		plugin.getMetrics().permissionCheck(decision != null);
+		if (decision == null) {
+			decision = parent.hasPermission(node);
+			permissions.put(node, decision);
+		}
+		return decision;
+	}
+
+	/**
+	 * Forgets all cached permission decisions of the chatter.
+	 */
+	public void invalidatePermissions() {
+		permissions.clear();
+		permissionsExpire = 0;
 	}
 
 	/**
@@ -248,18 +305,17 @@ public class Chatter implements Named {
 		}
 		channel = event.getChannel();
 		message = event.getMessage();
-		if (!parent.hasPermission("windchat.chat." + activeChannel.getName())) {
+		if (!hasPermission(channel, ChannelPermission.CHAT)) {
 			parent.sendMessage(ChatStyle.RED, "You don't have permission to chat in this channel!");
 			return;
 		}
-		if (activeChannel.isMuted(getParent().getName())) {
+		if (channel.isMuted(getParent().getName())) {
 			return;
 		}
+		plugin.getMetrics().chat();
 		message = channel.censorMessage(message);
-		ChatArguments template = getFormat(Format.CHAT);
-		Placeholders.format(Placeholders.NAME, template, new ChatArguments(parent.getName()));
-		Placeholders.format(Placeholders.MESSAGE, template, message);
-		channel.broadcast(template);
+		Template template = getTemplate(Format.CHAT);
+		channel.broadcast(this, template.render(Placeholders.NAME, new ChatArguments(parent.getName()), Placeholders.MESSAGE, message));
 	}
 
 	/**
@@ -298,12 +354,34 @@ public class Chatter implements Named {
 		}
 		channels.add(channel);
 		channel.addListener(this);
+		if (event.isActive()) {
+			channel.getHistory().replay(parent, System.currentTimeMillis());
+		}
 		parent.sendMessage(event.getMessage());
 		if (autoSave) {
 			save();
 		}
 	}
 
+	/**
+	 * Restores the channels, invites and active channel of the chatter at
+	 * once, without calling events, sending messages or saving.
+	 * 
+	 * @param channels to listen to
+	 * @param invites to channels
+	 * @param activeChannel to chat in
+	 */
+	public void restore(Collection<Channel> channels, Collection<Channel> invites, Channel activeChannel) {
+		Set<Chatter> self = Collections.singleton(this);
+		this.channels.addAll(channels);
+		this.channels.add(activeChannel);
+		for (Channel channel : this.channels) {
+			channel.restoreListeners(self);
+		}
+		this.invites.addAll(invites);
+		this.activeChannel = activeChannel;
+	}
+
 	/**
 	 * Leaves a channel
 	 * 
@@ -328,7 +406,7 @@ public class Chatter implements Named {
 		if (channel.equals(activeChannel)) {
 			throw new IllegalArgumentException("A player may not leave the channel he/she is active in.");
 		}
-		channel.removeListener(parent.getName());
+		channel.removeListener(this);
 		channels.remove(channel);
 		parent.sendMessage(event.getMessage());
 		if (autoSave) {
@@ -390,12 +468,21 @@ public class Chatter implements Named {
 	 * @return format
 	 */
 	public ChatArguments getFormat(Format format) {
-		ChatArguments def = format.getDefault();
+		return getTemplate(format).render();
+	}
+
+	/**
+	 * Gets the compiled template of a certain {@link Format} type.
+	 * 
+	 * @param format
+	 * @return template
+	 */
+	public Template getTemplate(Format format) {
 		ValueHolder data = parent.getData(format.toString());
 		if (data != null && data.getString() != null) {
-			def = ChatArguments.fromFormatString(data.getString());
+			return Template.cached(data.getString());
 		}
-		return def;
+		return format.getDefaultTemplate();
 	}
 
 	/**
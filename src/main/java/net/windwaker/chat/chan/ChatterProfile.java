@@ -0,0 +1,103 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.chan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import net.windwaker.chat.io.yaml.ChatConfiguration;
+
+/**
+ * The saved state of a {@link Chatter}: its name and the names of the
+ * channels it is in and invited to and of its active channel.
+ */
+public class ChatterProfile {
+	private final String name;
+	private final List<String> channels, invites;
+	private final String activeChannel;
+
+	public ChatterProfile(String name, Collection<String> channels, Collection<String> invites, String activeChannel) {
+		this.name = name;
+		this.channels = Collections.unmodifiableList(new ArrayList<String>(channels));
+		this.invites = Collections.unmodifiableList(new ArrayList<String>(invites));
+		this.activeChannel = activeChannel;
+	}
+
+	/**
+	 * Captures the current state of the specified chatter.
+	 * 
+	 * @param chatter to capture
+	 * @return profile
+	 */
+	public static ChatterProfile of(Chatter chatter) {
+		Channel active = chatter.getActiveChannel();
+		return new ChatterProfile(chatter.getName(), ChatConfiguration.getNames(chatter.getChannels()), ChatConfiguration.getNames(chatter.getInvites()), active == null ? null : active.getName());
+	}
+
+	/**
+	 * Creates an empty profile for a chatter that was never saved.
+	 * 
+	 * @param name of chatter
+	 * @return profile
+	 */
+	public static ChatterProfile empty(String name) {
+		return new ChatterProfile(name, Collections.<String>emptyList(), Collections.<String>emptyList(), null);
+	}
+
+	/**
+	 * Gets the name of the chatter.
+	 * 
+	 * @return name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Gets the names of the channels the chatter is in.
+	 * 
+	 * @return channel names
+	 */
+	public List<String> getChannels() {
+		return channels;
+	}
+
+	/**
+	 * Gets the names of the channels the chatter is invited to.
+	 * 
+	 * @return channel names
+	 */
+	public List<String> getInvites() {
+		return invites;
+	}
+
+	/**
+	 * Gets the name of the active channel of the chatter.
+	 * 
+	 * @return channel name or null if none
+	 */
+	public String getActiveChannel() {
+		return activeChannel;
+	}
+}
@@ -21,8 +21,23 @@
  */
 package net.windwaker.chat.chan;
 
-import java.util.HashSet;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.SocketFactory;
 
 import net.windwaker.chat.WindChat;
 import net.windwaker.chat.chan.Channel;
@@ -33,11 +48,24 @@ import org.pircbotx.PircBotX;
 
 import org.spout.api.chat.ChatArguments;
 import org.spout.api.plugin.PluginDescriptionFile;
+import org.spout.api.util.Named;
 
-public class IrcBot extends PircBotX {
-	private final Set<Channel> localChannels = new HashSet<Channel>();
+public class IrcBot extends PircBotX implements Named {
 	private final Set<String> ircChannels;
 	private final WindChat plugin;
+	private final IrcRoutingTable routes = new IrcRoutingTable();
+	private IrcOutboundQueue outbound;
+	private volatile BlockingQueue<String[]> inbound = new ArrayBlockingQueue<String[]>(512);
+	private final AtomicLong inboundDropped = new AtomicLong();
+	private final AtomicBoolean linking = new AtomicBoolean();
+	// Set while an attempt is scheduled or running, so only one is in flight
+	private final AtomicBoolean retrying = new AtomicBoolean();
+	private volatile boolean closed;
+	private ScheduledExecutorService connector;
+	private int connectTimeout = 10000;
+	private long minReconnectDelay = 5000, maxReconnectDelay = 300000;
+	private volatile long reconnectDelay;
+	private String connectServer;
 
 	public IrcBot(WindChat plugin, String name, boolean verbose, String server, Set<String> ircChannels) {
 		this.plugin = plugin;
@@ -52,6 +80,148 @@ public class IrcBot extends PircBotX {
 		listenerManager.addListener(new IrcChatHandler());
 	}
 
+	/**
+	 * Sends outgoing messages through the specified queue, combining up to
+	 * the specified amount of IRC channels into each message.
+	 * 
+	 * @param outbound queue to send through
+	 * @param maxTargets amount of channels per message
+	 */
+	public void setOutboundQueue(IrcOutboundQueue outbound, int maxTargets) {
+		if (this.outbound != null) {
+			this.outbound.stop();
+		}
+		this.outbound = outbound;
+		routes.setMaxTargets(maxTargets);
+		outbound.start();
+	}
+
+	/**
+	 * Gets the queue outgoing messages are sent through.
+	 * 
+	 * @return outbound queue or null if messages are sent directly
+	 */
+	public IrcOutboundQueue getOutboundQueue() {
+		return outbound;
+	}
+
+	/**
+	 * Sets how the bot connects in the background.
+	 * 
+	 * @param connector to connect on
+	 * @param connectTimeout in milliseconds of a single attempt
+	 * @param minReconnectDelay in milliseconds before the first retry
+	 * @param maxReconnectDelay in milliseconds between retries
+	 */
+	public void setConnector(ScheduledExecutorService connector, int connectTimeout, long minReconnectDelay, long maxReconnectDelay) {
+		this.connector = connector;
+		this.connectTimeout = connectTimeout;
+		this.minReconnectDelay = Math.max(1, minReconnectDelay);
+		this.maxReconnectDelay = Math.max(this.minReconnectDelay, maxReconnectDelay);
+	}
+
+	/**
+	 * Stops sending queued messages, stops reconnecting and disconnects from
+	 * the server.
+	 */
+	public void close() {
+		closed = true;
+		if (outbound != null) {
+			outbound.stop();
+		}
+		if (isConnected()) {
+			disconnect();
+		}
+	}
+
+	/**
+	 * Connects to the server in the background without waiting for the
+	 * connection. Failed attempts and lost connections are retried with an
+	 * exponentially growing delay until the bot is closed. Does nothing if
+	 * the bot is already connected or connecting.
+	 * 
+	 * @return false if the connection was cancelled
+	 */
+	public boolean connectAsync() {
+		if (connector == null) {
+			return connect();
+		}
+		if (closed || !linking.compareAndSet(false, true)) {
+			return true;
+		}
+		BotConnectEvent event = plugin.getEngine().getEventManager().callEvent(new BotConnectEvent(this, server));
+		if (event.isCancelled()) {
+			linking.set(false);
+			return false;
+		}
+		connectServer = event.getServer();
+		reconnectDelay = minReconnectDelay;
+		schedule(0);
+		return true;
+	}
+
+	/**
+	 * Called when the bot lost its connection to the server.
+	 */
+	public void disconnected() {
+		if (closed || !linking.get() || retrying.get()) {
+			// An attempt that is in flight retries by itself
+			return;
+		}
+		plugin.getLogger().warning("Bot '" + getName() + "' lost its connection, reconnecting in " + (reconnectDelay / 1000) + "s.");
+		schedule(reconnectDelay);
+	}
+
+	private void schedule(long delay) {
+		if (retrying.compareAndSet(false, true)) {
+			submit(delay);
+		}
+	}
+
+	private void submit(long delay) {
+		try {
+			connector.schedule(new Runnable() {
+				@Override
+				public void run() {
+					attempt();
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shutting down
+			retrying.set(false);
+		}
+	}
+
+	private void attempt() {
+		if (closed || isConnected()) {
+			retrying.set(false);
+			return;
+		}
+		try {
+			connect(connectServer, 6667, null, new TimeoutSocketFactory(connectTimeout));
+			for (String chan : ircChannels) {
+				joinChannel(chan);
+			}
+			reconnectDelay = minReconnectDelay;
+			retrying.set(false);
+			if (!isConnected()) {
+				// Lost again before the flag was cleared
+				disconnected();
+			}
+		} catch (Exception e) {
+			plugin.getLogger().warning("Bot '" + getName() + "' could not connect to " + connectServer + " (" + e.getMessage() + "), retrying in " + (reconnectDelay / 1000) + "s.");
+			long delay = reconnectDelay;
+			reconnectDelay = Math.min(maxReconnectDelay, reconnectDelay * 2);
+			submit(delay);
+		}
+	}
+
+	/**
+	 * Connects to the server and joins the IRC channels, waiting for the
+	 * connection.
+	 * 
+	 * @return true if connected
+	 */
 	public boolean connect() {
 		try {
 			BotConnectEvent event = plugin.getEngine().getEventManager().callEvent(new BotConnectEvent(this, server));
@@ -69,30 +239,207 @@ public class IrcBot extends PircBotX {
 		}
 	}
 	
+	/**
+	 * Gets the table routing messages between IRC and local channels.
+	 * 
+	 * @return routing table
+	 */
+	public IrcRoutingTable getRoutes() {
+		return routes;
+	}
+
+	/**
+	 * Bridges the specified local channel with the IRC channels it lists, or
+	 * with every channel of the bot if it lists none.
+	 * 
+	 * @param channel to bridge
+	 */
 	public void joinLocal(Channel channel) {
-		localChannels.add(channel);
+		Collection<String> linked = channel.getIrcChannels();
+		if (linked.isEmpty()) {
+			routes.link(channel, ircChannels);
+			return;
+		}
+		List<String> joined = new ArrayList<String>();
+		for (String chan : linked) {
+			if (isJoining(chan)) {
+				joined.add(chan);
+			} else {
+				plugin.getLogger().warning("Channel '" + channel.getName() + "' is linked to " + chan + ", which bot '" + getName() + "' does not join.");
+			}
+		}
+		routes.link(channel, joined);
 	}
-	
+
+	private boolean isJoining(String ircChannel) {
+		for (String chan : ircChannels) {
+			if (chan.equalsIgnoreCase(ircChannel)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stops bridging the specified local channel.
+	 * 
+	 * @param channel to stop bridging
+	 */
 	public void leaveLocal(Channel channel) {
-		localChannels.remove(channel);
+		routes.unlink(channel);
+	}
+
+	/**
+	 * Sets the maximum amount of received messages waiting to be processed.
+	 * 
+	 * @param capacity of the inbound queue
+	 */
+	public void setInboundCapacity(int capacity) {
+		inbound = new ArrayBlockingQueue<String[]>(Math.max(1, capacity));
+	}
+
+	/**
+	 * Queues a received message to be processed on the main thread. When the
+	 * queue is full the oldest message is dropped.
+	 * 
+	 * @param ircChannel the message was sent in
+	 * @param user that sent the message
+	 * @param message that was sent
+	 */
+	public void messageReceived(String ircChannel, String user, String message) {
+		String[] received = {ircChannel, user, message};
+		while (!inbound.offer(received)) {
+			if (inbound.poll() != null) {
+				inboundDropped.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Gets the amount of received messages waiting to be processed.
+	 * 
+	 * @return queued messages
+	 */
+	public int getInboundQueued() {
+		return inbound.size();
+	}
+
+	/**
+	 * Gets the amount of received messages that were dropped because they
+	 * could not be processed fast enough.
+	 * 
+	 * @return dropped messages
+	 */
+	public long getInboundDropped() {
+		return inboundDropped.get();
 	}
 
-	public void messageReceived(String user, String message) {
+	/**
+	 * Processes the oldest received message, broadcasting it to the channels
+	 * linked to the IRC channel it was sent in. Must be called from the main thread.
+	 * 
+	 * @return false if there was nothing to process
+	 */
+	public boolean processReceived() {
+		String[] received = inbound.poll();
+		if (received == null) {
+			return false;
+		}
+		processReceived(received[0], received[1], received[2]);
+		return true;
+	}
+
+	private void processReceived(String ircChannel, String user, String message) {
+		Channel[] channels = routes.getChannels(ircChannel);
+		if (channels.length == 0) {
+			return;
+		}
 		BotReceiveMessageEvent event = plugin.getEngine().getEventManager().callEvent(new BotReceiveMessageEvent(this, user, message));
 		if (event.isCancelled()) {
 			return;
 		}
 		user = event.getUser();
 		message = event.getMessage();
-		for (Channel chan : localChannels) {
+		for (Channel chan : channels) {
 			chan.broadcast(new ChatArguments(user + ": " + message));
 		}
 	}
-	
-	public void sendMessage(ChatArguments message) {
+
+	/**
+	 * Sends a message from the specified local channel to the IRC channels
+	 * it is linked to.
+	 * 
+	 * @param channel the message was sent in
+	 * @param message to send
+	 */
+	public void sendMessage(Channel channel, ChatArguments message) {
+		sendMessage(channel, message, true);
+	}
+
+	/**
+	 * Sends a message from the specified local channel to the IRC channels
+	 * it is linked to.
+	 * 
+	 * @param channel the message was sent in
+	 * @param message to send
+	 * @param wait whether the caller may wait for room in the outbound queue,
+	 *            false on the server thread
+	 */
+	public void sendMessage(Channel channel, ChatArguments message, boolean wait) {
 		String str = message.getPlainString();
-		for (String chan : ircChannels) {
-			sendMessage(chan, str);
+		// One deadline for every target, so the waits add up to one timeout at most
+		long deadline = wait ? System.currentTimeMillis() + IrcOutboundQueue.BLOCK_TIMEOUT : 0;
+		for (String target : routes.getTargets(channel)) {
+			if (outbound == null) {
+				sendMessage(target, str);
+			} else {
+				outbound.offer(target, str, deadline);
+			}
+		}
+	}
+
+	/**
+	 * Creates sockets that give up connecting after a timeout.
+	 */
+	private static class TimeoutSocketFactory extends SocketFactory {
+		private final int timeout;
+
+		private TimeoutSocketFactory(int timeout) {
+			this.timeout = timeout;
+		}
+
+		@Override
+		public Socket createSocket() throws IOException {
+			return new Socket();
+		}
+
+		@Override
+		public Socket createSocket(String host, int port) throws IOException {
+			return connect(new InetSocketAddress(host, port), null);
+		}
+
+		@Override
+		public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+			return connect(new InetSocketAddress(host, port), new InetSocketAddress(localHost, localPort));
+		}
+
+		@Override
+		public Socket createSocket(InetAddress host, int port) throws IOException {
+			return connect(new InetSocketAddress(host, port), null);
+		}
+
+		@Override
+		public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+			return connect(new InetSocketAddress(address, port), new InetSocketAddress(localAddress, localPort));
+		}
+
+		private Socket connect(InetSocketAddress address, InetSocketAddress local) throws IOException {
+			Socket socket = new Socket();
+			if (local != null) {
+				socket.bind(local);
+			}
+			socket.connect(address, timeout);
+			return socket;
 		}
 	}
 }
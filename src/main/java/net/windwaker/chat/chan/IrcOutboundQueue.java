@@ -0,0 +1,266 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.chan;
+
+import java.nio.charset.Charset;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.windwaker.chat.util.NamedThreadFactory;
+import net.windwaker.chat.util.OverflowPolicy;
+
+/**
+ * Sends the outgoing messages of an {@link IrcBot} from a background thread.
+ * Lines are paced by a token bucket so the bot is never flood-kicked, and
+ * queued lines for the same targets are combined into one PRIVMSG as long as
+ * it fits in the IRC line limit.
+ */
+public class IrcOutboundQueue implements Runnable {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	// 512 bytes minus the CRLF and room for the prefix the server adds when relaying
+	private static final int MAX_LINE_LENGTH = 510 - 100;
+	private static final String SEPARATOR = " | ";
+	/**
+	 * The longest in milliseconds a caller waits for room under the BLOCK
+	 * policy, the queue does not drain while the bot is disconnected.
+	 */
+	public static final long BLOCK_TIMEOUT = 1000;
+	private final IrcBot bot;
+	private final BlockingDeque<Line> queue;
+	private final OverflowPolicy overflowPolicy;
+	private final int burst;
+	private final long interval;
+	private final AtomicLong dropped = new AtomicLong(), sent = new AtomicLong();
+	private volatile boolean running = true;
+	private Thread thread;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * Constructs a new IrcOutboundQueue.
+	 * 
+	 * @param bot to send with
+	 * @param capacity maximum amount of queued lines
+	 * @param overflowPolicy what to do with lines when the queue is full
+	 * @param burst amount of lines that may be sent at once
+	 * @param interval in milliseconds it takes to earn another line
+	 */
+	public IrcOutboundQueue(IrcBot bot, int capacity, OverflowPolicy overflowPolicy, int burst, long interval) {
+		this.bot = bot;
+		this.overflowPolicy = overflowPolicy;
+		this.burst = Math.max(1, burst);
+		this.interval = Math.max(1, interval);
+		queue = new LinkedBlockingDeque<Line>(Math.max(1, capacity));
+		tokens = this.burst;
+		lastRefill = System.currentTimeMillis();
+	}
+
+	/**
+	 * Starts sending queued lines.
+	 */
+	public void start() {
+		thread = new NamedThreadFactory("Irc-" + bot.getName()).newThread(this);
+		thread.start();
+	}
+
+	/**
+	 * Stops sending, discarding any lines that are still queued.
+	 */
+	public void stop() {
+		running = false;
+		if (thread != null) {
+			thread.interrupt();
+		}
+		queue.clear();
+	}
+
+	/**
+	 * Queues a message to be sent.
+	 * 
+	 * @param targets comma separated channels or nicks
+	 * @param message to send
+	 * @return false if the message was dropped
+	 */
+	public boolean offer(String targets, String message) {
+		return offer(targets, message, System.currentTimeMillis() + BLOCK_TIMEOUT);
+	}
+
+	/**
+	 * Queues a message to be sent. Under the BLOCK policy the caller waits
+	 * for room until the deadline at the latest, then the oldest queued line
+	 * is dropped to make room. Several messages can share one deadline so
+	 * their waits add up to one timeout at most.
+	 * 
+	 * @param targets comma separated channels or nicks
+	 * @param message to send
+	 * @param deadline in milliseconds since the epoch, 0 to not wait at all
+	 * @return false if the message was dropped
+	 */
+	public boolean offer(String targets, String message, long deadline) {
+		Line line = new Line(targets, message);
+		if (queue.offerLast(line)) {
+			return true;
+		}
+		switch (overflowPolicy) {
+			case BLOCK:
+				long wait = deadline - System.currentTimeMillis();
+				try {
+					if (wait > 0 && queue.offerLast(line, wait, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					dropped.incrementAndGet();
+					return false;
+				}
+				// Out of time, make room like DROP_OLDEST
+			case DROP_OLDEST:
+				while (!queue.offerLast(line)) {
+					if (queue.pollFirst() != null) {
+						dropped.incrementAndGet();
+					}
+				}
+				return true;
+			default:
+				dropped.incrementAndGet();
+				return false;
+		}
+	}
+
+	/**
+	 * Gets the amount of lines waiting to be sent.
+	 * 
+	 * @return queued lines
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Gets the amount of lines that were dropped because the queue was full.
+	 * 
+	 * @return dropped lines
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the amount of lines sent to the server.
+	 * 
+	 * @return sent lines
+	 */
+	public long getSent() {
+		return sent.get();
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				Line first = queue.pollFirst(1, TimeUnit.SECONDS);
+				if (first == null) {
+					continue;
+				}
+				// Keep everything queued until the bot is connected
+				if (!bot.isConnected()) {
+					if (!queue.offerFirst(first)) {
+						// Filled up while it was taken out
+						dropped.incrementAndGet();
+					}
+					Thread.sleep(1000);
+					continue;
+				}
+				acquire();
+				String prefix = "PRIVMSG " + first.targets + " :";
+				int limit = MAX_LINE_LENGTH - length(prefix);
+				String text = first.message;
+				// Split lines that are too long on their own
+				while (length(text) > limit) {
+					int end = fit(text, limit);
+					bot.sendRawLineNow(prefix + text.substring(0, end));
+					sent.incrementAndGet();
+					text = text.substring(end);
+					acquire();
+				}
+				// Combine following lines for the same targets
+				StringBuilder builder = new StringBuilder(text);
+				int length = length(text);
+				Line next;
+				while ((next = queue.peekFirst()) != null && next.targets.equals(first.targets)) {
+					int added = length(SEPARATOR) + length(next.message);
+					if (length + added > limit || queue.pollFirst() == null) {
+						break;
+					}
+					builder.append(SEPARATOR).append(next.message);
+					length += added;
+				}
+				bot.sendRawLineNow(prefix + builder);
+				sent.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits until a line may be sent and takes a token for it.
+	 */
+	private void acquire() throws InterruptedException {
+		while (true) {
+			long now = System.currentTimeMillis();
+			tokens = Math.min(burst, tokens + (now - lastRefill) / (double) interval);
+			lastRefill = now;
+			if (tokens >= 1) {
+				tokens--;
+				return;
+			}
+			Thread.sleep((long) Math.ceil((1 - tokens) * interval));
+		}
+	}
+
+	private static int length(String str) {
+		return str.getBytes(UTF_8).length;
+	}
+
+	private static int fit(String str, int limit) {
+		int end = Math.min(str.length(), limit);
+		while (end > 1 && length(str.substring(0, end)) > limit) {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * A message waiting to be sent.
+	 */
+	private static class Line {
+		private final String targets, message;
+
+		private Line(String targets, String message) {
+			this.targets = targets;
+			this.message = message;
+		}
+	}
+}
@@ -0,0 +1,173 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.chan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Maps the IRC channels of an {@link IrcBot} to the local {@link Channel}s
+ * they are bridged with. Lookups in both directions are a single map read
+ * on an immutable snapshot, so messages are only routed to the channels
+ * paired with the one they were sent in.
+ */
+public class IrcRoutingTable {
+	private static final Channel[] NO_CHANNELS = new Channel[0];
+	private static final String[] NO_TARGETS = new String[0];
+	private final Map<Channel, Set<String>> links = new LinkedHashMap<Channel, Set<String>>();
+	private volatile Routes routes = new Routes(Collections.<String, Channel[]>emptyMap(), Collections.<Channel, String[]>emptyMap());
+	private int maxTargets = 1;
+
+	/**
+	 * Sets the maximum amount of IRC channels combined into a single target.
+	 * 
+	 * @param maxTargets amount of channels per target
+	 */
+	public synchronized void setMaxTargets(int maxTargets) {
+		this.maxTargets = Math.max(1, maxTargets);
+		rebuild();
+	}
+
+	/**
+	 * Links the specified local channel to the specified IRC channels,
+	 * replacing any previous link.
+	 * 
+	 * @param channel to link
+	 * @param ircChannels to link to
+	 */
+	public synchronized void link(Channel channel, Collection<String> ircChannels) {
+		Set<String> normalized = new LinkedHashSet<String>();
+		for (String ircChannel : ircChannels) {
+			normalized.add(normalize(ircChannel));
+		}
+		links.put(channel, normalized);
+		rebuild();
+	}
+
+	/**
+	 * Removes every link of the specified local channel.
+	 * 
+	 * @param channel to unlink
+	 */
+	public synchronized void unlink(Channel channel) {
+		if (links.remove(channel) != null) {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Gets the local channels linked to the specified IRC channel.
+	 * 
+	 * @param ircChannel to get channels of
+	 * @return linked channels
+	 */
+	public Channel[] getChannels(String ircChannel) {
+		Channel[] channels = routes.inbound.get(normalize(ircChannel));
+		return channels == null ? NO_CHANNELS : channels;
+	}
+
+	/**
+	 * Gets the targets messages of the specified local channel are sent to.
+	 * Each target is a comma separated list of IRC channels.
+	 * 
+	 * @param channel to get targets of
+	 * @return targets
+	 */
+	public String[] getTargets(Channel channel) {
+		String[] targets = routes.outbound.get(channel);
+		return targets == null ? NO_TARGETS : targets;
+	}
+
+	/**
+	 * Gets every local channel that is linked.
+	 * 
+	 * @return linked channels
+	 */
+	public synchronized Set<Channel> getLinked() {
+		return Collections.unmodifiableSet(new LinkedHashSet<Channel>(links.keySet()));
+	}
+
+	private void rebuild() {
+		Map<String, List<Channel>> inbound = new HashMap<String, List<Channel>>();
+		Map<Channel, String[]> outbound = new HashMap<Channel, String[]>();
+		for (Map.Entry<Channel, Set<String>> link : links.entrySet()) {
+			for (String ircChannel : link.getValue()) {
+				List<Channel> channels = inbound.get(ircChannel);
+				if (channels == null) {
+					channels = new ArrayList<Channel>();
+					inbound.put(ircChannel, channels);
+				}
+				channels.add(link.getKey());
+			}
+			outbound.put(link.getKey(), group(link.getValue()));
+		}
+		Map<String, Channel[]> frozen = new HashMap<String, Channel[]>();
+		for (Map.Entry<String, List<Channel>> route : inbound.entrySet()) {
+			frozen.put(route.getKey(), route.getValue().toArray(new Channel[route.getValue().size()]));
+		}
+		routes = new Routes(frozen, outbound);
+	}
+
+	private String[] group(Set<String> ircChannels) {
+		List<String> targets = new ArrayList<String>();
+		StringBuilder group = new StringBuilder();
+		int size = 0;
+		for (String ircChannel : ircChannels) {
+			if (size == maxTargets) {
+				targets.add(group.toString());
+				group.setLength(0);
+				size = 0;
+			}
+			if (size > 0) {
+				group.append(',');
+			}
+			group.append(ircChannel);
+			size++;
+		}
+		if (size > 0) {
+			targets.add(group.toString());
+		}
+		return targets.toArray(new String[targets.size()]);
+	}
+
+	private static String normalize(String ircChannel) {
+		return ircChannel.toLowerCase(Locale.ENGLISH);
+	}
+
+	private static class Routes {
+		private final Map<String, Channel[]> inbound;
+		private final Map<Channel, String[]> outbound;
+
+		private Routes(Map<String, Channel[]> inbound, Map<Channel, String[]> outbound) {
+			this.inbound = inbound;
+			this.outbound = outbound;
+		}
+	}
+}
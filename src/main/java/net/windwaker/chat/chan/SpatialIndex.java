@@ -0,0 +1,214 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.chan;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.windwaker.chat.WindChat;
+
+import org.spout.api.entity.Player;
+import org.spout.api.geo.World;
+import org.spout.api.geo.discrete.Point;
+
+/**
+ * A grid of the last known positions of every {@link Chatter} that is a
+ * {@link Player}, bucketed into square cells per world. Ranged channels use
+ * the grid to only visit chatters in cells that intersect the radius of a
+ * broadcast. The grid is rebuilt periodically on the main thread and
+ * published as an immutable snapshot so it can be queried from any thread.
+ */
+public class SpatialIndex implements Runnable {
+	private final WindChat plugin;
+	private final int cellSize;
+	private volatile Snapshot snapshot = new Snapshot(Collections.<World, Map<Long, Entry[]>>emptyMap(), Collections.<Chatter, Entry>emptyMap());
+
+	/**
+	 * Constructs a new SpatialIndex.
+	 * 
+	 * @param plugin
+	 * @param cellSize width of a cell in blocks
+	 */
+	public SpatialIndex(WindChat plugin, int cellSize) {
+		this.plugin = plugin;
+		this.cellSize = Math.max(1, cellSize);
+	}
+
+	/**
+	 * Rebuilds the grid from the current positions of all loaded chatters.
+	 */
+	@Override
+	public void run() {
+		update(plugin.getChatters().get());
+	}
+
+	/**
+	 * Rebuilds the grid from the current positions of the specified chatters.
+	 * 
+	 * @param chatters to index
+	 */
+	public void update(Collection<Chatter> chatters) {
+		Snapshot previous = snapshot;
+		Map<World, Map<Long, List<Entry>>> cells = new HashMap<World, Map<Long, List<Entry>>>();
+		Map<Chatter, Entry> entries = new HashMap<Chatter, Entry>();
+		for (Chatter chatter : chatters) {
+			Point position = chatter.getPosition();
+			if (position == null) {
+				continue;
+			}
+			World world = position.getWorld();
+			// Spout has no world change event, permissions may differ per world
+			Entry last = previous.entries.get(chatter);
+			if (last != null && last.world != world) {
+				chatter.invalidatePermissions();
+			}
+			Entry entry = new Entry(chatter, world, position.getX(), position.getY(), position.getZ());
+			Map<Long, List<Entry>> worldCells = cells.get(world);
+			if (worldCells == null) {
+				worldCells = new HashMap<Long, List<Entry>>();
+				cells.put(world, worldCells);
+			}
+			long key = key(cell(entry.x), cell(entry.z));
+			List<Entry> cell = worldCells.get(key);
+			if (cell == null) {
+				cell = new ArrayList<Entry>();
+				worldCells.put(key, cell);
+			}
+			cell.add(entry);
+			entries.put(chatter, entry);
+		}
+		// Freeze the cells into arrays
+		Map<World, Map<Long, Entry[]>> grid = new HashMap<World, Map<Long, Entry[]>>();
+		for (Map.Entry<World, Map<Long, List<Entry>>> worldCells : cells.entrySet()) {
+			Map<Long, Entry[]> frozen = new HashMap<Long, Entry[]>();
+			for (Map.Entry<Long, List<Entry>> cell : worldCells.getValue().entrySet()) {
+				frozen.put(cell.getKey(), cell.getValue().toArray(new Entry[cell.getValue().size()]));
+			}
+			grid.put(worldCells.getKey(), frozen);
+		}
+		snapshot = new Snapshot(grid, entries);
+	}
+
+	/**
+	 * Whether the position of the specified chatter is known to the index.
+	 * 
+	 * @param chatter
+	 * @return true if indexed
+	 */
+	public boolean isIndexed(Chatter chatter) {
+		return snapshot.entries.containsKey(chatter);
+	}
+
+	/**
+	 * Adds every listener of the channel that is within the radius of the
+	 * sender to the output collection.
+	 * 
+	 * @param sender at the center of the radius
+	 * @param channel the listeners must be in
+	 * @param radius in blocks
+	 * @param out collection to add to
+	 * @return false if the sender is not indexed and nothing was added
+	 */
+	public boolean query(Chatter sender, Channel channel, int radius, Collection<Chatter> out) {
+		Snapshot snapshot = this.snapshot;
+		Entry origin = snapshot.entries.get(sender);
+		if (origin == null) {
+			return false;
+		}
+		Map<Long, Entry[]> cells = snapshot.grid.get(origin.world);
+		double squaredRadius = (double) radius * radius;
+		int minX = cell(origin.x - radius), maxX = cell(origin.x + radius);
+		int minZ = cell(origin.z - radius), maxZ = cell(origin.z + radius);
+		Chatter[] listeners = channel.getListenerSnapshot();
+		if (((long) maxX - minX + 1) * ((long) maxZ - minZ + 1) > listeners.length) {
+			// The radius covers more cells than there are listeners, check each listener instead
+			for (Chatter listener : listeners) {
+				Entry entry = snapshot.entries.get(listener);
+				if (entry != null && entry.world == origin.world && origin.squaredDistance(entry) < squaredRadius) {
+					out.add(listener);
+				}
+			}
+			return true;
+		}
+		for (int x = minX; x <= maxX; x++) {
+			for (int z = minZ; z <= maxZ; z++) {
+				Entry[] cell = cells.get(key(x, z));
+				if (cell == null) {
+					continue;
+				}
+				for (Entry entry : cell) {
+					if (origin.squaredDistance(entry) < squaredRadius && channel.isListening(entry.chatter)) {
+						out.add(entry.chatter);
+					}
+				}
+			}
+		}
+		return true;
+	}
+
+	private int cell(float coordinate) {
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private static long key(int x, int z) {
+		return ((long) x << 32) | (z & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * The position of a chatter at the time the grid was built.
+	 */
+	private static class Entry {
+		private final Chatter chatter;
+		private final World world;
+		private final float x, y, z;
+
+		private Entry(Chatter chatter, World world, float x, float y, float z) {
+			this.chatter = chatter;
+			this.world = world;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+		}
+
+		private double squaredDistance(Entry other) {
+			double dx = x - other.x, dy = y - other.y, dz = z - other.z;
+			return dx * dx + dy * dy + dz * dz;
+		}
+	}
+
+	/**
+	 * An immutable version of the grid.
+	 */
+	private static class Snapshot {
+		private final Map<World, Map<Long, Entry[]>> grid;
+		private final Map<Chatter, Entry> entries;
+
+		private Snapshot(Map<World, Map<Long, Entry[]>> grid, Map<Chatter, Entry> entries) {
+			this.grid = grid;
+			this.entries = entries;
+		}
+	}
+}
@@ -29,6 +29,7 @@ import net.windwaker.chat.chan.Channel;
 import net.windwaker.chat.chan.Chatter;
 import net.windwaker.chat.cmd.sub.ChannelCommands;
 import net.windwaker.chat.handler.DateHandler;
+import net.windwaker.chat.util.ChannelPermission;
 import net.windwaker.chat.util.Placeholders;
 
 import org.spout.api.chat.ChatArguments;
@@ -105,7 +106,7 @@ public class ChatCommands {
 			throw new CommandException("You can only perform this cmd as a player.");
 		}
 		Player player = (Player) source;
-		Chatter chatter = plugin.getChatters().get(player.getName());
+		Chatter chatter = plugin.getChatters().get(player.getUID());
 		if (chatter != null && args.length() > 0) {
 			chatter.setQuitMessage(args.getJoinedString(0));
 		}
@@ -172,7 +173,7 @@ public class ChatCommands {
 	}
 
 	public static Chatter getChatter(WindChat plugin, Player player) throws CommandException {
-		Chatter chatter = plugin.getChatters().get(player.getName());
+		Chatter chatter = plugin.getChatters().get(player.getUID());
 		if (chatter == null) {
 			player.kick(ChatStyle.RED, "Error: An internal error occurred.");
 			throw new CommandException("Error: Chatter was null!");
@@ -204,7 +205,7 @@ public class ChatCommands {
 			throw new CommandException("Please specify a channel to mute the player in.");
 		}
 		Player p = (Player) source;
-		Chatter chatter = plugin.getChatters().get(p.getName());
+		Chatter chatter = plugin.getChatters().get(p.getUID());
 		if (chatter == null) {
 			p.kick(ChatStyle.RED, "Error: An internal error occurred.");
 			throw new CommandException("Error: Chatter was null!");
@@ -221,4 +222,20 @@ public class ChatCommands {
 			throw new CommandException("You don't have permission to do that!");
 		}
 	}
+
+	public static void checkPermission(WindChat plugin, CommandSource source, Channel channel, ChannelPermission permission) throws CommandException {
+		Chatter chatter = null;
+		if (source instanceof Player) {
+			chatter = plugin.getChatters().get(((Player) source).getUID());
+		}
+		boolean permitted;
+		if (chatter != null) {
+			permitted = chatter.hasPermission(channel, permission);
+		} else {
+			permitted = source.hasPermission(channel.getPermissionNode(permission));
+		}
+		if (!permitted) {
+			throw new CommandException("You don't have permission to do that!");
+		}
+	}
 }
@@ -23,10 +23,18 @@ package net.windwaker.chat.cmd.sub;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 
 import net.windwaker.chat.WindChat;
 import net.windwaker.chat.chan.Channel;
 import net.windwaker.chat.chan.Chatter;
+import net.windwaker.chat.chan.IrcBot;
+import net.windwaker.chat.chan.IrcOutboundQueue;
+import net.windwaker.chat.io.ChatLogger;
+import net.windwaker.chat.metrics.ChannelMetrics;
+import net.windwaker.chat.metrics.Histogram;
+import net.windwaker.chat.metrics.Metrics;
+import net.windwaker.chat.util.ChannelPermission;
 
 import org.spout.api.chat.ChatArguments;
 import org.spout.api.chat.style.ChatStyle;
@@ -87,7 +95,7 @@ public class ChannelCommands {
 			throw new CommandException("Channel not found!");
 		}
 
-		checkPermission(source, "windchat.censor." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.CENSOR);
 		if (replacement == null) {
 			channel.censor(word);
 		} else {
@@ -102,7 +110,7 @@ public class ChannelCommands {
 			throw new CommandException("Only players can perform this cmd!");
 		}
 		Channel channel = getChannel(plugin, args, 0);
-		checkPermission(source, "windchat.qm." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.QUICK_MESSAGE);
 		Chatter chatter = getChatter(plugin, (Player) source);
 		chatter.chat(channel, args.getJoinedString(1));
 	}
@@ -111,7 +119,7 @@ public class ChannelCommands {
 	public void radius(CommandContext args, CommandSource source) throws CommandException {
 		int radius = args.getInteger(0);
 		Channel channel = getChannel(plugin, args, source, 1);
-		checkPermission(source, "windchat.radius." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.RADIUS);
 		channel.setRadius(radius);
 		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Set radius of channel '" + channel.getName() + "' to " + radius);
 	}
@@ -120,7 +128,7 @@ public class ChannelCommands {
 	public void mute(CommandContext args, CommandSource source) throws CommandException {
 		String playerName = args.getString(0);
 		Channel channel = getChannel(plugin, args, source, 1);
-		checkPermission(source, "windchat.mute." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.MUTE);
 		channel.mute(playerName);
 		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Muted player '", playerName, "' from channel '", channel.getName(), "'.");
 	}
@@ -129,7 +137,7 @@ public class ChannelCommands {
 	public void unmute(CommandContext args, CommandSource source) throws CommandException {
 		String playerName = args.getString(0);
 		Channel channel = getChannel(plugin, args, source, 1);
-		checkPermission(source, "windchat.unmute." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.UNMUTE);
 		channel.unmute(playerName);
 		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Unmuted player '", playerName, "' from channel '", channel.getName(), "'.");
 	}
@@ -168,7 +176,7 @@ public class ChannelCommands {
 		if (channel.equals(plugin.getChannels().getDefault())) {
 			throw new CommandException("You cannot ban a player from the default channel.");
 		}
-		checkPermission(source, "windchat.ban." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.BAN);
 		channel.ban(playerName, true, message);
 		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Player '", playerName, "' banned from channel '", channel.getName(), "'.");
 	}
@@ -177,7 +185,7 @@ public class ChannelCommands {
 	public void unban(CommandContext args, CommandSource source) throws CommandException {
 		String playerName = args.getString(0);
 		Channel channel = getChannel(plugin, args, source, 1);
-		checkPermission(source, "windchat.unban." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.UNBAN);
 		channel.unban(playerName);
 		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Player '", playerName, "' unbanned from channel '", channel.getName(), "'.");
 	}
@@ -220,7 +228,7 @@ public class ChannelCommands {
 		if (channel.equals(plugin.getChannels().getDefault())) {
 			throw new CommandException("You cannot kick a player from the default channel.");
 		}
-		checkPermission(source, "windchat.kick." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.KICK);
 		chatter.kick(channel, message);
 		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Kicked player '", player.getName(), "' from channel '", channel.getName(), "'.");
 	}
@@ -233,7 +241,7 @@ public class ChannelCommands {
 			throw new CommandException("Player not found.");
 		}
 		Chatter chatter = getChatter(plugin, player);
-		checkPermission(source, "windchat.invite." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.INVITE);
 		if (channel.isInviteOnly()) {
 			chatter.invite(channel);
 		}
@@ -245,7 +253,7 @@ public class ChannelCommands {
 	@Command(aliases = "invite-only", usage = "<channel> <bool>", desc = "Set whether a channel is invite only", min = 2, max = 2)
 	public void inviteOnly(CommandContext args, CommandSource source) throws CommandException {
 		Channel channel = getChannel(plugin, args, 0);
-		checkPermission(source, "windchat.invite-only." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.INVITE_ONLY);
 		boolean value = Boolean.valueOf(args.getString(1));
 		channel.setInviteOnly(value);
 		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Set state of invite only of channel '" + channel.getName() + "' to " + value);
@@ -273,7 +281,7 @@ public class ChannelCommands {
 			throw new CommandException("Channel '" + channel.getName() + "' is by invite only!");
 		}
 
-		checkPermission(source, "windchat.join." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.JOIN);
 		if (args.length() == 1) {
 			if (channel.hasPassword()) {
 				throw new CommandException(channel.getName() + " requires a password for entrance!");
@@ -305,14 +313,14 @@ public class ChannelCommands {
 		if (!chatter.getChannels().contains(channel)) {
 			throw new CommandException("You are not in " + channel.getName() + "!");
 		}
-		checkPermission(source, "windchat.leave." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.LEAVE);
 		chatter.leave(channel);
 	}
 
 	@Command(aliases = {"who", "players", "users"}, usage = "[channel]", desc = "List all listeners in a channel", min = 0, max = 1)
 	public void who(CommandContext args, CommandSource source) throws CommandException {
 		Channel channel = getChannel(plugin, args, source, 0);
-		checkPermission(source, "windchat.who." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.WHO);
 		List<Chatter> listeners = new ArrayList<Chatter>(channel.getListeners());
 		ChatArguments message = new ChatArguments(ChatStyle.BRIGHT_GREEN, channel.getName(), " (", ChatStyle.BLUE, listeners.size(), ChatStyle.BRIGHT_GREEN, "): ");
 		for (int i = 0; i < listeners.size(); i++) {
@@ -331,7 +339,7 @@ public class ChannelCommands {
 			pass = null;
 		}
 		Channel channel = getChannel(plugin, args, source, 1);
-		checkPermission(source, "windchat.pass." + channel.getName());
+		checkPermission(plugin, source, channel, ChannelPermission.PASSWORD);
 		channel.setPassword(pass);
 		ChatArguments message = new ChatArguments();
 		if (pass != null) {
@@ -359,4 +367,48 @@ public class ChannelCommands {
 			source.sendMessage(ChatStyle.BLUE, channels.get(i).getName());
 		}
 	}
+
+	@Command(aliases = "stats", usage = "[channel]", desc = "Show the chat load of the server or a channel.", min = 0, max = 1)
+	@CommandPermissions("windchat.stats")
+	public void stats(CommandContext args, CommandSource source) throws CommandException {
+		if (args.length() == 1) {
+			Channel channel = getChannel(plugin, args, 0);
+			ChannelMetrics metrics = channel.getMetrics();
+			Histogram fanOut = metrics.getFanOut(), latency = metrics.getLatency();
+			source.sendMessage(ChatStyle.BRIGHT_GREEN, "----------", ChatStyle.WHITE, " [", ChatStyle.CYAN, ChatStyle.BOLD, "Stats - ", channel.getName(), ChatStyle.RESET, "] ", ChatStyle.BRIGHT_GREEN, "----------");
+			source.sendMessage(ChatStyle.BRIGHT_GREEN, "Messages: ", ChatStyle.BLUE, metrics.getMessages(), ChatStyle.BRIGHT_GREEN, " (", ChatStyle.BLUE, format(metrics.getRate()), ChatStyle.BRIGHT_GREEN, "/s), censored: ", ChatStyle.BLUE, metrics.getCensored(), ChatStyle.BRIGHT_GREEN, ", dropped: ", ChatStyle.BLUE, metrics.getDropped());
+			source.sendMessage(ChatStyle.BRIGHT_GREEN, "Fan-out: ", ChatStyle.BLUE, metrics.getDeliveries(), ChatStyle.BRIGHT_GREEN, " deliveries, mean ", ChatStyle.BLUE, format(fanOut.getMean()), ChatStyle.BRIGHT_GREEN, ", p99 ", ChatStyle.BLUE, fanOut.getPercentile(0.99), ChatStyle.BRIGHT_GREEN, ", max ", ChatStyle.BLUE, fanOut.getMax());
+			source.sendMessage(ChatStyle.BRIGHT_GREEN, "Latency: p50 ", ChatStyle.BLUE, millis(latency.getPercentile(0.5)), ChatStyle.BRIGHT_GREEN, ", p99 ", ChatStyle.BLUE, millis(latency.getPercentile(0.99)), ChatStyle.BRIGHT_GREEN, ", max ", ChatStyle.BLUE, millis(latency.getMax()));
+			return;
+		}
+		Metrics metrics = plugin.getMetrics();
+		ChatLogger logger = plugin.getChatLogger();
+		long checks = metrics.getPermissionChecks();
+		double hitRate = checks == 0 ? 100 : 100D * (checks - metrics.getPermissionMisses()) / checks;
+		source.sendMessage(ChatStyle.BRIGHT_GREEN, "----------", ChatStyle.WHITE, " [", ChatStyle.CYAN, ChatStyle.BOLD, "Stats", ChatStyle.RESET, "] ", ChatStyle.BRIGHT_GREEN, "----------");
+		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Chat: ", ChatStyle.BLUE, metrics.getChats(), ChatStyle.BRIGHT_GREEN, " messages, ", ChatStyle.BLUE, metrics.getPrivateMessages(), ChatStyle.BRIGHT_GREEN, " private, ", ChatStyle.BLUE, format(hitRate), "%", ChatStyle.BRIGHT_GREEN, " permission cache hits");
+		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Broadcasts pending: ", ChatStyle.BLUE, plugin.getBroadcastPipeline().getPending());
+		source.sendMessage(ChatStyle.BRIGHT_GREEN, "Log: ", ChatStyle.BLUE, logger.getQueued(), ChatStyle.BRIGHT_GREEN, " queued, ", ChatStyle.BLUE, logger.getWritten(), ChatStyle.BRIGHT_GREEN, " written, ", ChatStyle.BLUE, logger.getDropped(), ChatStyle.BRIGHT_GREEN, " dropped");
+		for (IrcBot bot : plugin.getBots().get()) {
+			IrcOutboundQueue outbound = bot.getOutboundQueue();
+			ChatArguments message = new ChatArguments(ChatStyle.BRIGHT_GREEN, "Bot '", bot.getName(), "': ");
+			if (outbound != null) {
+				message.append(ChatStyle.BLUE, outbound.getQueued(), ChatStyle.BRIGHT_GREEN, " to send, ", ChatStyle.BLUE, outbound.getSent(), ChatStyle.BRIGHT_GREEN, " sent, ", ChatStyle.BLUE, outbound.getDropped(), ChatStyle.BRIGHT_GREEN, " dropped, ");
+			}
+			message.append(ChatStyle.BLUE, bot.getInboundQueued(), ChatStyle.BRIGHT_GREEN, " received waiting");
+			source.sendMessage(message);
+		}
+		for (Channel channel : plugin.getChannels().get()) {
+			ChannelMetrics channelMetrics = channel.getMetrics();
+			source.sendMessage(ChatStyle.BLUE, channel.getName(), ChatStyle.BRIGHT_GREEN, ": ", ChatStyle.BLUE, format(channelMetrics.getRate()), ChatStyle.BRIGHT_GREEN, "/s, p99 ", ChatStyle.BLUE, millis(channelMetrics.getLatency().getPercentile(0.99)));
+		}
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ENGLISH, "%.1f", value);
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ENGLISH, "%.2fms", nanos / 1e6);
+	}
 }
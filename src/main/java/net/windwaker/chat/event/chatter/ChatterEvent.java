@@ -31,4 +31,8 @@ public abstract class ChatterEvent extends Event {
 	public ChatterEvent(Chatter chatter) {
 		this.chatter = chatter;
 	}
+
+	public Chatter getChatter() {
+		return chatter;
+	}
 }
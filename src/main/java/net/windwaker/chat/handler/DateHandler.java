@@ -35,7 +35,7 @@ public class DateHandler {
 	/**
 	 * Initializes the DateHandler to the current set time formats
 	 */
-	public void init() {
+	public synchronized void init() {
 		dateFormat = new SimpleDateFormat(ChatConfiguration.DATE_FORMAT.getString("MM/dd/yyyy"));
 		timeFormat = new SimpleDateFormat(ChatConfiguration.TIME_FORMAT.getString("HH:mm:ss"));
 	}
@@ -44,7 +44,7 @@ public class DateHandler {
 	 * Gets the formatted date as configured in {@link net.windwaker.chat.io.yaml.ChatConfiguration}.
 	 * @return configured formatted date
 	 */
-	public String getFormattedDate() {
+	public synchronized String getFormattedDate() {
 		return dateFormat.format(getTime());
 	}
 
@@ -52,10 +52,19 @@ public class DateHandler {
 	 * Gets the formatted time as configured in {@link net.windwaker.chat.io.yaml.ChatConfiguration}.
 	 * @return configured formatted time
 	 */
-	public String getFormattedTime() {
+	public synchronized String getFormattedTime() {
 		return timeFormat.format(getTime());
 	}
 
+	/**
+	 * Gets the specified time formatted as configured in {@link net.windwaker.chat.io.yaml.ChatConfiguration}.
+	 * @param time to format
+	 * @return configured formatted time
+	 */
+	public synchronized String getFormattedTime(Date time) {
+		return timeFormat.format(time);
+	}
+
 	/**
 	 * Gets the configured {@link java.util.TimeZone} of the plugin.
 	 * Returns the time zone of the location of the server if the zone is not set or is set to "default"
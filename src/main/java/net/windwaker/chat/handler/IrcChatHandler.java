@@ -28,11 +28,17 @@ package net.windwaker.chat.handler;
 
 import net.windwaker.chat.chan.IrcBot;
 import org.pircbotx.hooks.ListenerAdapter;
+import org.pircbotx.hooks.events.DisconnectEvent;
 import org.pircbotx.hooks.events.MessageEvent;
 
 public class IrcChatHandler extends ListenerAdapter<IrcBot> {
 	@Override
 	public void onMessage(MessageEvent<IrcBot> event) {
-		event.getBot().messageReceived(event.getUser().getNick(), event.getMessage());
+		event.getBot().messageReceived(event.getChannel().getName(), event.getUser().getNick(), event.getMessage());
+	}
+
+	@Override
+	public void onDisconnect(DisconnectEvent<IrcBot> event) {
+		event.getBot().disconnected();
 	}
 }
@@ -0,0 +1,61 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.handler;
+
+import net.windwaker.chat.WindChat;
+import net.windwaker.chat.chan.IrcBot;
+import net.windwaker.chat.io.yaml.ChatConfiguration;
+
+/**
+ * Processes messages received by the {@link IrcBot}s on the main thread. The
+ * bots queue what they receive on their own threads, and each run handles a
+ * limited amount of queued messages, taking turns between bots.
+ */
+public class IrcInboundHandler implements Runnable {
+	private final WindChat plugin;
+
+	/**
+	 * Constructs a new IrcInboundHandler
+	 * @param plugin
+	 */
+	public IrcInboundHandler(WindChat plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public void run() {
+		int budget = ChatConfiguration.IRC_INBOUND_BUDGET.getInt();
+		boolean pending = true;
+		while (budget > 0 && pending) {
+			pending = false;
+			for (IrcBot bot : plugin.getBots().get()) {
+				if (budget == 0) {
+					break;
+				}
+				if (bot.processReceived()) {
+					budget--;
+					pending = true;
+				}
+			}
+		}
+	}
+}
@@ -25,6 +25,7 @@ import net.windwaker.chat.WindChat;
 import net.windwaker.chat.chan.Chatter;
 import net.windwaker.chat.util.Format;
 import net.windwaker.chat.util.Placeholders;
+import net.windwaker.chat.util.Template;
 
 import org.spout.api.chat.ChatArguments;
 import org.spout.api.chat.style.ChatStyle;
@@ -56,7 +57,7 @@ public class LocalChatHandler implements Listener {
 	public void playerChat(PlayerChatEvent event) {
 		event.setCancelled(true);
 		Player player = event.getPlayer();
-		Chatter chatter = plugin.getChatters().get(player.getName());
+		Chatter chatter = plugin.getChatters().get(player.getUID());
 		if (chatter == null) {
 			player.kick(ChatStyle.RED, "Error: An internal error occurred.");
 			return;
@@ -73,23 +74,21 @@ public class LocalChatHandler implements Listener {
 			player.kick(ChatStyle.RED, "Error: An internal error occurred.");
 			return;
 		}
-		ChatArguments template = chatter.getFormat(Format.JOIN_MESSAGE);
-		Placeholders.format(Placeholders.NAME, template, new ChatArguments(player.getDisplayName()));
-		event.setMessage(template);
+		Template template = chatter.getTemplate(Format.JOIN_MESSAGE);
+		event.setMessage(template.render(Placeholders.NAME, new ChatArguments(player.getDisplayName())));
 	}
 
 	@EventHandler
 	public void playerLeave(PlayerLeaveEvent event) {
 		Player player = event.getPlayer();
-		Chatter chatter = plugin.getChatters().get(player.getName());
+		Chatter chatter = plugin.getChatters().get(player.getUID());
 		if (chatter == null) {
 			return;
 		}
-		ChatArguments template = chatter.getFormat(Format.LEAVE_MESSAGE);
-		Placeholders.format(Placeholders.NAME, template, new ChatArguments(player.getDisplayName()));
+		Template template = chatter.getTemplate(Format.LEAVE_MESSAGE);
 		ChatArguments quitMessage = chatter.getQuitMessage();
 		String reason = event.isKick() ? "Kicked" : "Quit";
-		Placeholders.format(Placeholders.QUIT_MESSAGE, template, quitMessage == null ? new ChatArguments(reason) : quitMessage);
-		event.setMessage(template);
+		event.setMessage(template.render(Placeholders.NAME, new ChatArguments(player.getDisplayName()), Placeholders.QUIT_MESSAGE, quitMessage == null ? new ChatArguments(reason) : quitMessage));
+		plugin.getChatters().unload(chatter);
 	}
 }
@@ -0,0 +1,51 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.handler;
+
+import net.windwaker.chat.WindChat;
+
+/**
+ * Looks for changes made to the configuration files while the server runs
+ * and applies only what changed, instead of reloading the whole plugin.
+ * Only the time and size of each file is checked until one of them changes.
+ */
+public class ReloadHandler implements Runnable {
+	private final WindChat plugin;
+
+	/**
+	 * Constructs a new ReloadHandler
+	 * @param plugin
+	 */
+	public ReloadHandler(WindChat plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public void run() {
+		if (plugin.getChatConfiguration().reloadIfChanged()) {
+			plugin.applySettings();
+		}
+		// Bots before channels since channels link to bots by name
+		plugin.getBots().reloadIfChanged();
+		plugin.getChannels().reloadIfChanged();
+	}
+}
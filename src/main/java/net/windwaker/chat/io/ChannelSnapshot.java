@@ -0,0 +1,305 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.zip.CRC32;
+
+import net.windwaker.chat.WindChat;
+import net.windwaker.chat.chan.Channel;
+import net.windwaker.chat.chan.IrcBot;
+import net.windwaker.chat.io.yaml.ChatConfiguration;
+
+import org.spout.api.chat.ChatArguments;
+
+/**
+ * A binary copy of every channel, written when the plugin shuts down cleanly
+ * and mapped into memory on the next start. It remembers the size, last
+ * change and checksum of the document it was taken alongside, and is only used
+ * while that document is unchanged, so the document stays the one to edit by
+ * hand.
+ */
+public class ChannelSnapshot {
+	/**
+	 * The version of the format, increased whenever the layout changes.
+	 */
+	public static final int VERSION = 2;
+	private static final int MAGIC = 0x57434853;
+	private final File file;
+
+	/**
+	 * Constructs a new ChannelSnapshot.
+	 * 
+	 * @param file of the snapshot
+	 */
+	public ChannelSnapshot(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Gets the file of the snapshot.
+	 * 
+	 * @return file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * The channels read from a snapshot.
+	 */
+	public static class Contents {
+		private final long sequence;
+		private final List<Channel> channels;
+		private final Map<String, List<String>> listeners;
+
+		private Contents(long sequence, List<Channel> channels, Map<String, List<String>> listeners) {
+			this.sequence = sequence;
+			this.channels = channels;
+			this.listeners = listeners;
+		}
+
+		/**
+		 * Gets the sequence number of the last moderation action included.
+		 * 
+		 * @return sequence number
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * Gets the restored channels.
+		 * 
+		 * @return channels
+		 */
+		public List<Channel> getChannels() {
+			return channels;
+		}
+
+		/**
+		 * Gets the names of the listeners of every channel by channel name.
+		 * 
+		 * @return listener names
+		 */
+		public Map<String, List<String>> getListeners() {
+			return listeners;
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the specified channels.
+	 * 
+	 * @param source document the channels were saved to
+	 * @param sequence of the last moderation action included
+	 * @param channels to write
+	 * @throws IOException if the snapshot could not be written
+	 */
+	public void write(File source, long sequence, Collection<Channel> channels) throws IOException {
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(temp);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(source.lastModified());
+			out.writeLong(source.length());
+			out.writeLong(checksum(source));
+			out.writeLong(sequence);
+			out.writeInt(channels.size());
+			for (Channel channel : channels) {
+				writeString(out, channel.getName());
+				out.writeInt(channel.getRadius());
+				out.writeBoolean(channel.isInviteOnly());
+				writeString(out, channel.getPassword());
+				writeString(out, channel.getJoinMessage().toFormatString());
+				writeString(out, channel.getLeaveMessage().toFormatString());
+				writeString(out, channel.getFormat().toFormatString());
+				writeString(out, channel.getBanMessage().toFormatString());
+				out.writeBoolean(channel.isIrcEnabled());
+				writeString(out, channel.getBotName());
+				writeStrings(out, channel.getIrcChannels());
+				writeStrings(out, ChatConfiguration.getNames(channel.getListeners()));
+				writeStrings(out, channel.getBanned());
+				writeStrings(out, channel.getMuted());
+				Map<String, String> censoredWords = channel.getCensoredWords();
+				out.writeInt(censoredWords.size());
+				for (Entry<String, String> word : censoredWords.entrySet()) {
+					writeString(out, word.getKey());
+					writeString(out, word.getValue());
+				}
+			}
+			out.flush();
+			stream.getFD().sync();
+		} finally {
+			out.close();
+		}
+		if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/**
+	 * Reads the channels from the snapshot if it is still up to date with the
+	 * specified document.
+	 * 
+	 * @param plugin to create the channels for
+	 * @param source document the channels were saved to
+	 * @return contents or null if there is no usable snapshot
+	 * @throws IOException if the snapshot could not be read
+	 */
+	public Contents read(WindChat plugin, File source) throws IOException {
+		if (!file.exists() || !source.exists()) {
+			return null;
+		}
+		ByteBuffer in;
+		FileInputStream stream = new FileInputStream(file);
+		try {
+			FileChannel channel = stream.getChannel();
+			in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			stream.close();
+		}
+		try {
+			if (in.remaining() < 8 || in.getInt() != MAGIC || in.getInt() != VERSION) {
+				return null;
+			}
+			// An edit within the resolution of the timestamp keeps the size only by chance
+			if (in.getLong() != source.lastModified() || in.getLong() != source.length() || in.getLong() != checksum(source)) {
+				return null;
+			}
+			long sequence = in.getLong();
+			int count = in.getInt();
+			List<Channel> channels = new ArrayList<Channel>(count);
+			Map<String, List<String>> listeners = new HashMap<String, List<String>>();
+			for (int i = 0; i < count; i++) {
+				Channel channel = new Channel(plugin, readString(in));
+				// Don't write everything back to disk we are loading
+				channel.setAutoSave(false);
+				channel.setRadius(in.getInt());
+				channel.setInviteOnly(readBoolean(in));
+				channel.setPassword(readString(in));
+				channel.setJoinMessage(ChatArguments.fromFormatString(readString(in)));
+				channel.setLeaveMessage(ChatArguments.fromFormatString(readString(in)));
+				channel.setFormat(ChatArguments.fromFormatString(readString(in)));
+				channel.setBanMessage(ChatArguments.fromFormatString(readString(in)));
+				channel.setIrcEnabled(readBoolean(in));
+				String botName = readString(in);
+				channel.setIrcChannels(readStrings(in));
+				IrcBot bot = botName == null ? null : plugin.getBots().get(botName);
+				if (bot != null) {
+					channel.connectToIrc(bot);
+				}
+				listeners.put(channel.getName(), readStrings(in));
+				List<String> banned = readStrings(in), muted = readStrings(in);
+				int words = in.getInt();
+				Map<String, String> censoredWords = new LinkedHashMap<String, String>();
+				for (int j = 0; j < words; j++) {
+					censoredWords.put(readString(in), readString(in));
+				}
+				channel.restore(banned, muted, censoredWords);
+				// Turn auto-save back on
+				channel.setAutoSave(true);
+				channels.add(channel);
+			}
+			return new Contents(sequence, channels, listeners);
+		} catch (BufferUnderflowException e) {
+			throw new IOException("The snapshot ends too early.");
+		}
+	}
+
+	private static long checksum(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[8192];
+		FileInputStream in = new FileInputStream(file);
+		try {
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				crc.update(buffer, 0, read);
+			}
+		} finally {
+			in.close();
+		}
+		return crc.getValue();
+	}
+
+	private static void writeString(DataOutputStream out, String str) throws IOException {
+		if (str == null) {
+			out.writeInt(-1);
+			return;
+		}
+		byte[] bytes = str.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeStrings(DataOutputStream out, Collection<String> strs) throws IOException {
+		out.writeInt(strs.size());
+		for (String str : strs) {
+			writeString(out, str);
+		}
+	}
+
+	private static boolean readBoolean(ByteBuffer in) {
+		return in.get() != 0;
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if (length == -1) {
+			return null;
+		}
+		if (length < 0 || length > in.remaining()) {
+			throw new IOException("The snapshot is corrupt.");
+		}
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+	private static List<String> readStrings(ByteBuffer in) throws IOException {
+		int count = in.getInt();
+		if (count < 0 || count > in.remaining() / 4) {
+			throw new IOException("The snapshot is corrupt.");
+		}
+		List<String> strs = new ArrayList<String>(count);
+		for (int i = 0; i < count; i++) {
+			strs.add(readString(in));
+		}
+		return strs;
+	}
+}
@@ -23,21 +23,40 @@ package net.windwaker.chat.io;
 
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.windwaker.chat.WindChat;
 import net.windwaker.chat.handler.DateHandler;
+import net.windwaker.chat.io.yaml.ChatConfiguration;
+import net.windwaker.chat.metrics.Histogram;
+import net.windwaker.chat.util.NamedThreadFactory;
+import net.windwaker.chat.util.OverflowPolicy;
+
 import org.spout.api.chat.ChatArguments;
 
 public class ChatLogger {
+	// Longest a broadcast waits for room under the BLOCK policy
+	private static final long BLOCK_TIMEOUT = 1000;
 	private final WindChat plugin;
 	private final ChatLevel CHAT = new ChatLevel();
 	private final DateHandler dateHandler;
-	private final List<String> messages = new ArrayList<String>();
-	private File file;
+	private final BlockingQueue<Line> queue;
+	private final OverflowPolicy overflowPolicy;
+	private final long flushInterval, syncInterval;
+	private final AtomicLong dropped = new AtomicLong(), written = new AtomicLong();
+	private final Histogram writeLatency = new Histogram();
+	private volatile boolean running;
+	private Thread writer;
+	private LogRotator rotator;
 
 	/**
 	 * Constructs a new ChatLogger of the specified plugin.
@@ -46,56 +65,249 @@ public class ChatLogger {
 	public ChatLogger(WindChat plugin) {
 		this.plugin = plugin;
 		dateHandler = plugin.getDateHandler();
+		queue = new ArrayBlockingQueue<Line>(Math.max(1, ChatConfiguration.LOG_QUEUE_SIZE.getInt()));
+		overflowPolicy = OverflowPolicy.get(ChatConfiguration.LOG_OVERFLOW_POLICY.getString());
+		flushInterval = Math.max(1, ChatConfiguration.LOG_FLUSH_INTERVAL.getLong());
+		syncInterval = ChatConfiguration.LOG_SYNC_INTERVAL.getLong();
 	}
 
 	/**
-	 * Caches a chat message to be saved and prints to console.
-	 * @param message to cache
+	 * Queues a chat message to be written to disk and prints to console.
+	 * @param message to log
 	 */
 	public void log(ChatArguments message) {
 		String str = message.getPlainString();
-		messages.add("[" + dateHandler.getFormattedTime() + "] " + str);
 		plugin.getLogger().log(CHAT, str);
+		if (!running) {
+			// Restarting, or the writer failed
+			if (ChatConfiguration.LOG_CHAT.getBoolean()) {
+				dropped.incrementAndGet();
+			}
+			return;
+		}
+		Line line = new Line(System.currentTimeMillis(), str);
+		if (queue.offer(line)) {
+			return;
+		}
+		switch (overflowPolicy) {
+			case DROP_OLDEST:
+				while (!queue.offer(line)) {
+					if (queue.poll() != null) {
+						dropped.incrementAndGet();
+					}
+				}
+				break;
+			case BLOCK:
+				try {
+					if (!queue.offer(line, BLOCK_TIMEOUT, TimeUnit.MILLISECONDS)) {
+						dropped.incrementAndGet();
+					}
+				} catch (InterruptedException e) {
+					dropped.incrementAndGet();
+					Thread.currentThread().interrupt();
+				}
+				break;
+			default:
+				dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Gets the amount of messages waiting to be written.
+	 * @return queued messages
+	 */
+	public int getQueued() {
+		return queue.size();
+	}
+
+	/**
+	 * Gets the amount of messages that were dropped because the queue was full.
+	 * @return dropped messages
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the amount of messages written to disk.
+	 * @return written messages
+	 */
+	public long getWritten() {
+		return written.get();
+	}
+
+	/**
+	 * Gets the milliseconds between logging each message and writing it.
+	 * @return write latency histogram
+	 */
+	public Histogram getWriteLatency() {
+		return writeLatency;
 	}
 
 	/**
 	 * Starts the ChatLogger and creates a new file at 'DATA_FOLDER/logs/DATE_TIME.txt
 	 */
 	public void start() {
-		try {
-			String fileName = dateHandler.getFormattedDate() + "_" + dateHandler.getFormattedTime();
-			fileName = fileName.replaceAll("[\\\\/]", "-").replaceAll(":", "\\.");
-			file = new File(plugin.getDataFolder(), "logs/" + fileName + ".txt");
-			if (!file.exists()) {
-				file.getParentFile().mkdirs();
-				file.createNewFile();
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
+		if (writer != null) {
+			stop();
+		}
+		File folder = new File(plugin.getDataFolder(), "logs");
+		folder.mkdirs();
+		rotator = new LogRotator(folder, ChatConfiguration.LOG_MAX_SIZE.getLong(), ChatConfiguration.LOG_ROTATE_PERIOD.getLong(), ChatConfiguration.LOG_COMPRESS.getBoolean(), ChatConfiguration.LOG_RETENTION_DAYS.getLong(), ChatConfiguration.LOG_RETENTION_SIZE.getLong());
+		running = true;
+		writer = new NamedThreadFactory("Logger").newThread(new Writer(folder));
+		writer.start();
+	}
+
+	/**
+	 * Creates a new log file named by the current date and time.
+	 * @param folder to create the file in
+	 * @return new file
+	 * @throws IOException
+	 */
+	private File createFile(File folder) throws IOException {
+		String fileName = dateHandler.getFormattedDate() + "_" + dateHandler.getFormattedTime();
+		fileName = fileName.replaceAll("[\\\\/]", "-").replaceAll(":", "\\.");
+		File file = new File(folder, fileName + ".txt");
+		for (int i = 1; file.exists() || new File(file.getPath() + ".gz").exists(); i++) {
+			file = new File(folder, fileName + "_" + i + ".txt");
 		}
+		file.createNewFile();
+		return file;
 	}
 
 	/**
-	 * Saves all cached messages to disk.
+	 * Writes all queued messages to disk and stops the writer.
 	 */
 	public void stop() {
+		// The writer clears running by itself when it fails
+		if (writer == null) {
+			return;
+		}
+		running = false;
 		try {
-			if (file == null || !file.exists()) {
+			writer.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		writer = null;
+		rotator.shutdown();
+		long count = dropped.getAndSet(0);
+		if (count > 0) {
+			plugin.getLogger().warning("The chat log dropped " + count + " messages because it could not keep up.");
+		}
+	}
+
+	/**
+	 * Appends queued messages to the log file in batches, moving on to a new
+	 * file whenever the {@link LogRotator} says so.
+	 */
+	private class Writer implements Runnable {
+		private final File folder;
+		private final List<Line> batch = new ArrayList<Line>();
+		private File file;
+		private FileOutputStream stream;
+		private BufferedWriter out;
+		private long opened;
+
+		private Writer(File folder) {
+			this.folder = folder;
+		}
+
+		private void open() throws IOException {
+			file = createFile(folder);
+			stream = new FileOutputStream(file, true);
+			out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+			opened = System.currentTimeMillis();
+			rotator.sweep(file);
+		}
+
+		private void close() {
+			if (out == null) {
 				return;
 			}
-			BufferedWriter out = new BufferedWriter(new FileWriter(file.getAbsoluteFile()));
-			for (String message : messages) {
-				out.write(message);
-				out.newLine();
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-			out.close();
+			out = null;
 			if (file.length() == 0) {
 				file.delete();
 			}
-			file = null;
-			messages.clear();
-		} catch (IOException e) {
-			e.printStackTrace();
+		}
+
+		@Override
+		public void run() {
+			boolean failed = false;
+			try {
+				open();
+				long lastFlush = System.currentTimeMillis(), lastSync = lastFlush;
+				boolean unflushed = false, unsynced = false;
+				while (running || !queue.isEmpty()) {
+					Line first = queue.poll(flushInterval, TimeUnit.MILLISECONDS);
+					if (first != null) {
+						batch.add(first);
+						queue.drainTo(batch);
+						long writtenAt = System.currentTimeMillis();
+						for (Line line : batch) {
+							out.write("[" + dateHandler.getFormattedTime(new Date(line.time)) + "] " + line.message);
+							out.newLine();
+							writeLatency.record(writtenAt - line.time);
+						}
+						written.addAndGet(batch.size());
+						batch.clear();
+						unflushed = unsynced = true;
+					}
+					long now = System.currentTimeMillis();
+					if (unflushed && now - lastFlush >= flushInterval) {
+						out.flush();
+						lastFlush = now;
+						unflushed = false;
+					}
+					if (unsynced && syncInterval > 0 && now - lastSync >= syncInterval) {
+						out.flush();
+						stream.getFD().sync();
+						lastSync = now;
+						unsynced = false;
+					}
+					if (!unflushed && rotator.shouldRotate(file, opened, now)) {
+						close();
+						open();
+						unsynced = false;
+					}
+				}
+			} catch (IOException e) {
+				failed = true;
+				e.printStackTrace();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				close();
+			}
+			if (failed) {
+				// Nothing drains the queue anymore, stop accepting lines
+				running = false;
+				int lost = 0;
+				while (queue.poll() != null) {
+					lost++;
+				}
+				dropped.addAndGet(lost);
+				plugin.getLogger().warning("The chat log could not be written and stopped, " + lost + " queued messages were dropped. Reload to start it again.");
+			}
+		}
+	}
+
+	/**
+	 * A message waiting to be written.
+	 */
+	private static class Line {
+		private final long time;
+		private final String message;
+
+		private Line(long time, String message) {
+			this.time = time;
+			this.message = message;
 		}
 	}
 }
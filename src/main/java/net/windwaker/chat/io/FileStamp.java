@@ -0,0 +1,57 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.io;
+
+import java.io.File;
+
+/**
+ * The size and time of the last change of a file, to tell whether a file was
+ * changed by something else since it was last read or written.
+ */
+public class FileStamp {
+	private final long lastModified, length;
+
+	private FileStamp(long lastModified, long length) {
+		this.lastModified = lastModified;
+		this.length = length;
+	}
+
+	/**
+	 * Takes the stamp of a file as it is now.
+	 * 
+	 * @param file to stamp
+	 * @return stamp
+	 */
+	public static FileStamp of(File file) {
+		return new FileStamp(file.lastModified(), file.length());
+	}
+
+	/**
+	 * Whether the specified file is unchanged since this stamp was taken.
+	 * 
+	 * @param file to compare
+	 * @return true if unchanged
+	 */
+	public boolean matches(File file) {
+		return file.lastModified() == lastModified && file.length() == length;
+	}
+}
@@ -0,0 +1,203 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import net.windwaker.chat.util.NamedThreadFactory;
+
+/**
+ * Decides when a chat log segment should be closed, compresses closed
+ * segments in the background and removes old segments once they fall
+ * outside of the retention policy.
+ */
+public class LogRotator {
+	private static final long MEGABYTE = 1024L * 1024L, HOUR = 60L * 60L * 1000L, DAY = 24L * HOUR;
+	private final File folder;
+	private final long maxSize, period, maxAge, maxTotalSize;
+	private final boolean compress;
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("Log-Rotate"));
+
+	/**
+	 * Constructs a new LogRotator.
+	 * 
+	 * @param folder the logs are in
+	 * @param maxSize in megabytes of a segment, 0 for no limit
+	 * @param period in hours of a segment, 0 for no limit
+	 * @param compress whether closed segments are compressed
+	 * @param maxAge in days of a closed segment, 0 for no limit
+	 * @param maxTotalSize in megabytes of all closed segments, 0 for no limit
+	 */
+	public LogRotator(File folder, long maxSize, long period, boolean compress, long maxAge, long maxTotalSize) {
+		this.folder = folder;
+		this.maxSize = maxSize * MEGABYTE;
+		this.period = period * HOUR;
+		this.compress = compress;
+		this.maxAge = maxAge * DAY;
+		this.maxTotalSize = maxTotalSize * MEGABYTE;
+	}
+
+	/**
+	 * Whether the segment being written should be closed.
+	 * 
+	 * @param file of the segment
+	 * @param opened time the segment was opened
+	 * @param now current time
+	 * @return true if should rotate
+	 */
+	public boolean shouldRotate(File file, long opened, long now) {
+		return (period > 0 && now - opened >= period) || (maxSize > 0 && file.length() >= maxSize);
+	}
+
+	/**
+	 * Compresses segments that were closed and applies the retention policy
+	 * in the background.
+	 * 
+	 * @param current segment being written which is left alone
+	 */
+	public void sweep(final File current) {
+		if (executor.isShutdown()) {
+			return;
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				if (compress) {
+					for (File file : list(".txt")) {
+						if (!file.equals(current) && file.length() > 0) {
+							compress(file);
+						}
+					}
+				}
+				expire(current);
+			}
+		});
+	}
+
+	/**
+	 * Waits for queued compression to finish.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void compress(File file) {
+		File compressed = new File(file.getPath() + ".gz");
+		File temp = new File(file.getPath() + ".gz.tmp");
+		InputStream in = null;
+		OutputStream out = null;
+		try {
+			in = new BufferedInputStream(new FileInputStream(file));
+			out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = in.read(buffer)) != -1) {
+				out.write(buffer, 0, read);
+			}
+			out.close();
+			out = null;
+			in.close();
+			in = null;
+			compressed.delete();
+			if (temp.renameTo(compressed)) {
+				compressed.setLastModified(file.lastModified());
+				file.delete();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			temp.delete();
+		} finally {
+			close(in);
+			close(out);
+		}
+	}
+
+	private void expire(File current) {
+		File[] files = list(".txt", ".txt.gz");
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long diff = b.lastModified() - a.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		long now = System.currentTimeMillis(), total = 0;
+		// Newest first, so everything after the limits are hit is removed
+		for (File file : files) {
+			if (file.equals(current)) {
+				continue;
+			}
+			total += file.length();
+			boolean expired = maxAge > 0 && now - file.lastModified() > maxAge;
+			boolean overSize = maxTotalSize > 0 && total > maxTotalSize;
+			if (expired || overSize) {
+				file.delete();
+			}
+		}
+	}
+
+	private File[] list(final String... suffixes) {
+		File[] files = folder.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				for (String suffix : suffixes) {
+					if (file.isFile() && file.getName().endsWith(suffix)) {
+						return true;
+					}
+				}
+				return false;
+			}
+		});
+		return files == null ? new File[0] : files;
+	}
+
+	private static void close(Closeable closeable) {
+		if (closeable == null) {
+			return;
+		}
+		try {
+			closeable.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+}
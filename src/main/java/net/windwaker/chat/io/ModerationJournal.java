@@ -0,0 +1,312 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An append-only log of moderation actions taken in channels. Every action
+ * is a single line with an increasing sequence number, so recording one is a
+ * small write at the end of the file instead of a rewrite of every channel.
+ * Actions newer than the last snapshot of the channels are replayed on
+ * startup, and the log is cut back whenever a new snapshot is taken.
+ */
+public class ModerationJournal {
+	// Marks a complete line, a line cut short by a crash lacks it
+	private static final String END = ";";
+	private final File file;
+	private final boolean sync;
+	private FileOutputStream stream;
+	private BufferedWriter out;
+	private long sequence;
+	private int size;
+
+	/**
+	 * An action that can be recorded in the journal.
+	 */
+	public enum Action {
+		BAN,
+		UNBAN,
+		MUTE,
+		UNMUTE,
+		CENSOR
+	}
+
+	/**
+	 * A single recorded action.
+	 */
+	public static class Entry {
+		private final long sequence;
+		private final Action action;
+		private final String channel, subject, value;
+
+		public Entry(long sequence, Action action, String channel, String subject, String value) {
+			this.sequence = sequence;
+			this.action = action;
+			this.channel = channel;
+			this.subject = subject;
+			this.value = value;
+		}
+
+		/**
+		 * Gets the sequence number of the action.
+		 * 
+		 * @return sequence number
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+		/**
+		 * Gets the action that was taken.
+		 * 
+		 * @return action
+		 */
+		public Action getAction() {
+			return action;
+		}
+
+		/**
+		 * Gets the name of the channel the action was taken in.
+		 * 
+		 * @return channel name
+		 */
+		public String getChannel() {
+			return channel;
+		}
+
+		/**
+		 * Gets the name or word the action was taken on.
+		 * 
+		 * @return subject
+		 */
+		public String getSubject() {
+			return subject;
+		}
+
+		/**
+		 * Gets the replacement of a censored word.
+		 * 
+		 * @return value or null if none
+		 */
+		public String getValue() {
+			return value;
+		}
+	}
+
+	/**
+	 * Constructs a new ModerationJournal.
+	 * 
+	 * @param file to append to
+	 * @param sync whether every action is forced to disk before returning
+	 */
+	public ModerationJournal(File file, boolean sync) {
+		this.file = file;
+		this.sync = sync;
+	}
+
+	/**
+	 * Reads the recorded actions newer than the specified sequence number and
+	 * opens the journal for appending after the newest of them.
+	 * 
+	 * @param snapshot sequence number of the last action included in the snapshot
+	 * @return actions to replay in order
+	 * @throws IOException if the journal could not be read or opened
+	 */
+	public synchronized List<Entry> open(long snapshot) throws IOException {
+		List<Entry> entries = read(snapshot);
+		sequence = entries.isEmpty() ? snapshot : entries.get(entries.size() - 1).getSequence();
+		size = entries.size();
+		// Rewrite so a line torn by a crash is not followed by new ones
+		rewrite(entries);
+		return entries;
+	}
+
+	/**
+	 * Records an action.
+	 * 
+	 * @param action taken
+	 * @param channel name of the channel
+	 * @param subject name or word the action was taken on
+	 * @param value replacement of a censored word or null
+	 * @return sequence number of the action
+	 * @throws IOException if the action could not be written
+	 */
+	public synchronized long append(Action action, String channel, String subject, String value) throws IOException {
+		if (out == null) {
+			throw new IOException("The moderation journal is not open.");
+		}
+		long next = sequence + 1;
+		write(new Entry(next, action, channel, subject, value));
+		out.flush();
+		if (sync) {
+			stream.getFD().sync();
+		}
+		sequence = next;
+		size++;
+		return next;
+	}
+
+	/**
+	 * Gets the sequence number of the last recorded action.
+	 * 
+	 * @return sequence number
+	 */
+	public synchronized long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Gets the amount of actions in the journal.
+	 * 
+	 * @return amount of actions
+	 */
+	public synchronized int getSize() {
+		return size;
+	}
+
+	/**
+	 * Removes the actions that are included in a snapshot.
+	 * 
+	 * @param snapshot sequence number of the last action included in the snapshot
+	 * @throws IOException if the journal could not be rewritten
+	 */
+	public synchronized void truncate(long snapshot) throws IOException {
+		close();
+		List<Entry> entries = read(snapshot);
+		size = entries.size();
+		rewrite(entries);
+	}
+
+	/**
+	 * Closes the journal.
+	 */
+	public synchronized void close() {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		out = null;
+		stream = null;
+	}
+
+	/**
+	 * Reads the recorded actions newer than the specified sequence number.
+	 * 
+	 * @param after sequence number of the last action to skip
+	 * @return actions in order
+	 * @throws IOException if the journal could not be read
+	 */
+	public synchronized List<Entry> read(long after) throws IOException {
+		List<Entry> entries = new ArrayList<Entry>();
+		if (!file.exists()) {
+			return entries;
+		}
+		BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line;
+			while ((line = in.readLine()) != null) {
+				Entry entry = parse(line);
+				if (entry == null) {
+					// Only the last line can be torn, nothing valid follows it
+					break;
+				}
+				if (entry.getSequence() > after) {
+					entries.add(entry);
+				}
+			}
+		} finally {
+			in.close();
+		}
+		return entries;
+	}
+
+	private void rewrite(List<Entry> entries) throws IOException {
+		close();
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+		stream = new FileOutputStream(temp);
+		out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+		for (Entry entry : entries) {
+			write(entry);
+		}
+		out.flush();
+		stream.getFD().sync();
+		out.close();
+		out = null;
+		if (!temp.renameTo(file) && (!file.delete() || !temp.renameTo(file))) {
+			throw new IOException("Could not replace " + file);
+		}
+		stream = new FileOutputStream(file, true);
+		out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+	}
+
+	private void write(Entry entry) throws IOException {
+		out.write(entry.getSequence() + " " + entry.getAction().name() + " " + encode(entry.getChannel()) + " " + encode(entry.getSubject()));
+		if (entry.getValue() != null) {
+			out.write(" " + encode(entry.getValue()));
+		}
+		out.write(" " + END);
+		out.newLine();
+	}
+
+	private static Entry parse(String line) {
+		String[] parts = line.split(" ");
+		if (parts.length < 5 || !parts[parts.length - 1].equals(END)) {
+			return null;
+		}
+		try {
+			long sequence = Long.parseLong(parts[0]);
+			Action action = Action.valueOf(parts[1]);
+			return new Entry(sequence, action, decode(parts[2]), decode(parts[3]), parts.length > 5 ? decode(parts[4]) : null);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	private static String encode(String str) throws UnsupportedEncodingException {
+		return URLEncoder.encode(str, "UTF-8");
+	}
+
+	private static String decode(String str) {
+		try {
+			return URLDecoder.decode(str, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.windwaker.chat.util.NamedThreadFactory;
+
+/**
+ * Collects objects that have changed and writes them to disk together on a
+ * background thread. Every change pushes the write back by the configured
+ * delay, but a write never happens later than the maximum delay after the
+ * first change that is still pending.
+ */
+public class WriteBehindQueue<T> {
+	private final Writer<T> writer;
+	private final long delay, maxDelay;
+	private final ScheduledExecutorService executor;
+	private final Set<T> dirty = new LinkedHashSet<T>();
+	// Held while writing so a flush never overlaps another one
+	private final Object writeLock = new Object();
+	private final Runnable flushTask = new Runnable() {
+		@Override
+		public void run() {
+			flush();
+		}
+	};
+	private long firstDirty;
+	private ScheduledFuture<?> scheduled;
+
+	/**
+	 * Constructs a new WriteBehindQueue.
+	 * 
+	 * @param name of the writing thread
+	 * @param writer to write changed objects with
+	 * @param delay in milliseconds after the last change to write
+	 * @param maxDelay in milliseconds after the first change to write
+	 */
+	public WriteBehindQueue(String name, Writer<T> writer, long delay, long maxDelay) {
+		this.writer = writer;
+		this.delay = delay;
+		this.maxDelay = Math.max(delay, maxDelay);
+		executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory(name));
+	}
+
+	/**
+	 * Marks an object as changed and schedules it to be written.
+	 * 
+	 * @param value that changed
+	 */
+	public synchronized void markDirty(T value) {
+		dirty.add(value);
+		if (executor.isShutdown()) {
+			return;
+		}
+		long now = System.currentTimeMillis();
+		if (firstDirty == 0) {
+			firstDirty = now;
+		}
+		long deadline = Math.min(now + delay, firstDirty + maxDelay);
+		if (scheduled != null) {
+			scheduled.cancel(false);
+		}
+		scheduled = executor.schedule(flushTask, Math.max(0, deadline - now), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Gets the amount of objects waiting to be written.
+	 * 
+	 * @return pending writes
+	 */
+	public synchronized int getPending() {
+		return dirty.size();
+	}
+
+	/**
+	 * Writes all changed objects on the calling thread, after any write that
+	 * is already running has finished.
+	 */
+	public void flush() {
+		synchronized (writeLock) {
+			List<T> batch;
+			synchronized (this) {
+				if (scheduled != null) {
+					scheduled.cancel(false);
+					scheduled = null;
+				}
+				firstDirty = 0;
+				if (dirty.isEmpty()) {
+					return;
+				}
+				batch = new ArrayList<T>(dirty);
+				dirty.clear();
+			}
+			try {
+				writer.write(batch);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Stops the background thread, waits for a write it is doing and writes
+	 * anything that is still pending.
+	 */
+	public void shutdown() {
+		synchronized (this) {
+			executor.shutdown();
+			// Don't wait for a write that was only scheduled, it is done below
+			if (scheduled != null) {
+				scheduled.cancel(false);
+				scheduled = null;
+			}
+		}
+		try {
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	/**
+	 * Writes a batch of changed objects.
+	 */
+	public interface Writer<T> {
+		/**
+		 * Writes the changed objects to disk.
+		 * 
+		 * @param values that changed
+		 */
+		public void write(Collection<T> values);
+	}
+}
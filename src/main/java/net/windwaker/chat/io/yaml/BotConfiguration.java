@@ -22,20 +22,36 @@
 package net.windwaker.chat.io.yaml;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import net.windwaker.chat.WindChat;
+import net.windwaker.chat.chan.Channel;
 import net.windwaker.chat.chan.IrcBot;
+import net.windwaker.chat.chan.IrcOutboundQueue;
+import net.windwaker.chat.io.FileStamp;
+import net.windwaker.chat.util.NamedRegistry;
+import net.windwaker.chat.util.NamedThreadFactory;
+import net.windwaker.chat.util.OverflowPolicy;
 
 import org.spout.api.exception.ConfigurationException;
 import org.spout.api.util.config.yaml.YamlConfiguration;
 
 public class BotConfiguration extends YamlConfiguration {
 	private final WindChat plugin;
-	private final Set<IrcBot> bots = new HashSet<IrcBot>();
+	private final NamedRegistry<IrcBot> bots = new NamedRegistry<IrcBot>();
+	private final ScheduledExecutorService connector = Executors.newScheduledThreadPool(4, new NamedThreadFactory("Irc-Connect"));
+	private final Map<String, String> settings = new ConcurrentHashMap<String, String>();
+	private FileStamp stamp;
 
 	public BotConfiguration(WindChat plugin) {
 		super(new File(plugin.getDataFolder(), "bots.yml"));
@@ -43,12 +59,11 @@ public class BotConfiguration extends YamlConfiguration {
 	}
 
 	public IrcBot get(String botName) {
-		for (IrcBot bot : bots) {
-			if (bot.getName().equalsIgnoreCase(botName)) {
-				return bot;
-			}
-		}
-		return null;
+		return bots.get(botName);
+	}
+
+	public Collection<IrcBot> get() {
+		return bots.values();
 	}
 
 	public IrcBot load(String botName) {
@@ -57,10 +72,90 @@ public class BotConfiguration extends YamlConfiguration {
 		String server = getNode(path + ".server").getString();
 		List<String> channels = getNode(path + ".channel").getStringList();
 		IrcBot bot = new IrcBot(plugin, botName, verbose, server, new HashSet<String>(channels));
+		int queueSize = getNode(path + ".queue.size").getInt(256);
+		OverflowPolicy overflow = OverflowPolicy.get(getNode(path + ".queue.overflow").getString("drop-oldest"));
+		int burst = getNode(path + ".flood.burst").getInt(5);
+		long interval = getNode(path + ".flood.interval").getLong(2000);
+		int timeout = getNode(path + ".connect-timeout").getInt(10000);
+		bot.setConnector(connector, timeout, getNode(path + ".reconnect.min-delay").getLong(5000), getNode(path + ".reconnect.max-delay").getLong(300000));
+		bot.setInboundCapacity(getNode(path + ".inbound.size").getInt(512));
+		bot.setOutboundQueue(new IrcOutboundQueue(bot, queueSize, overflow, burst, interval), getNode(path + ".max-targets").getInt(4));
 		bots.add(bot);
+		settings.put(NamedRegistry.normalize(botName), describe(path));
 		return bot;
 	}
 
+	/**
+	 * Loads 'bots.yml' again if it was changed since it was last loaded. Only
+	 * bots whose settings changed are replaced and reconnected, and channels
+	 * linked to a replaced bot are linked to the new one.
+	 * @return true if loaded again
+	 */
+	public synchronized boolean reloadIfChanged() {
+		if (stamp == null || stamp.matches(getFile())) {
+			return false;
+		}
+		try {
+			super.load();
+		} catch (ConfigurationException e) {
+			e.printStackTrace();
+			stamp = FileStamp.of(getFile());
+			return false;
+		}
+		stamp = FileStamp.of(getFile());
+		Set<String> names = new HashSet<String>();
+		int changed = 0;
+		for (String name : getNode("bots").getKeys(false)) {
+			names.add(NamedRegistry.normalize(name));
+			IrcBot old = bots.get(name);
+			if (old != null && describe("bots." + name).equals(settings.get(NamedRegistry.normalize(name)))) {
+				continue;
+			}
+			IrcBot bot = load(name);
+			if (old != null) {
+				old.close();
+				for (Channel channel : plugin.getChannels().get()) {
+					if (channel.getBot() == old) {
+						channel.connectToIrc(bot);
+					}
+				}
+			}
+			changed++;
+		}
+		for (IrcBot bot : new ArrayList<IrcBot>(bots.values())) {
+			if (!names.contains(NamedRegistry.normalize(bot.getName()))) {
+				bots.remove(bot);
+				settings.remove(NamedRegistry.normalize(bot.getName()));
+				bot.close();
+				changed++;
+			}
+		}
+		plugin.getLogger().info("Reloaded " + getFile().getName() + ": " + changed + " bots changed.");
+		return true;
+	}
+
+	/**
+	 * Describes every setting under a path, to tell whether any of them
+	 * changed.
+	 */
+	private String describe(String path) {
+		StringBuilder description = new StringBuilder();
+		for (String key : new TreeSet<String>(getNode(path).getKeys(true))) {
+			description.append(key).append('=').append(getNode(path + "." + key).getValue()).append('\n');
+		}
+		return description.toString();
+	}
+
+	/**
+	 * Disconnects every bot and stops their queues.
+	 */
+	public void close() {
+		connector.shutdownNow();
+		for (IrcBot bot : bots) {
+			bot.close();
+		}
+	}
+
 	@Override
 	public void load() {
 		try {
@@ -77,14 +172,21 @@ public class BotConfiguration extends YamlConfiguration {
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
 		}
+		stamp = FileStamp.of(getFile());
 	}
 
 	@Override
-	public void save() {
+	public synchronized void save() {
+		if (stamp != null && !stamp.matches(getFile()) && ChatConfiguration.RELOAD_INTERVAL.getLong() > 0) {
+			// Let reloadIfChanged load the change instead of overwriting it
+			plugin.getLogger().warning(getFile().getName() + " was changed on disk, it is not saved until the change is loaded.");
+			return;
+		}
 		try {
 			super.save();
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
 		}
+		stamp = FileStamp.of(getFile());
 	}
 }
@@ -22,26 +22,52 @@
 package net.windwaker.chat.io.yaml;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import net.windwaker.chat.WindChat;
 import net.windwaker.chat.chan.Channel;
 import net.windwaker.chat.chan.Chatter;
 import net.windwaker.chat.chan.IrcBot;
+import net.windwaker.chat.event.channel.ChannelLoadEvent;
+import net.windwaker.chat.io.ChannelSnapshot;
+import net.windwaker.chat.io.FileStamp;
+import net.windwaker.chat.io.ModerationJournal;
+import net.windwaker.chat.io.ModerationJournal.Action;
+import net.windwaker.chat.io.WriteBehindQueue;
+import net.windwaker.chat.util.NamedRegistry;
 
 import org.spout.api.chat.ChatArguments;
 import org.spout.api.exception.ConfigurationException;
 import org.spout.api.util.config.yaml.YamlConfiguration;
 
 /**
- * Represents a collection of channels.
+ * Represents a collection of channels. Moderation actions are recorded in a
+ * {@link ModerationJournal} and only written into this document when the
+ * journal is compacted. When a {@link ChannelSnapshot} is up to date with the
+ * document the channels are restored from it instead, and the document is
+ * only parsed once it has to be written.
  */
 public class ChannelConfiguration extends YamlConfiguration {
 	private final WindChat plugin;
-	private final Set<Channel> channels = new HashSet<Channel>();
+	private final NamedRegistry<Channel> channels = new NamedRegistry<Channel>();
+	private final WriteBehindQueue<Channel> saveQueue;
+	private final ModerationJournal journal;
+	private final AtomicBoolean compactRequested = new AtomicBoolean();
+	private final ChannelSnapshot snapshot;
+	private boolean parsed;
+	private FileStamp stamp;
+	private Map<String, List<String>> snapshotListeners;
 
 	/**
 	 * Constructs a new ChannelConfiguration at 'plugins/WindChat/channels.yml'.
@@ -49,6 +75,18 @@ public class ChannelConfiguration extends YamlConfiguration {
 	public ChannelConfiguration(WindChat plugin) {
 		super(new File(plugin.getDataFolder(), "channels.yml"));
 		this.plugin = plugin;
+		saveQueue = new WriteBehindQueue<Channel>("Channel-Save", new WriteBehindQueue.Writer<Channel>() {
+			@Override
+			public void write(Collection<Channel> values) {
+				if (compactRequested.getAndSet(false)) {
+					compact();
+				} else {
+					save(values);
+				}
+			}
+		}, ChatConfiguration.SAVE_DELAY.getLong(), ChatConfiguration.SAVE_MAX_DELAY.getLong());
+		snapshot = new ChannelSnapshot(new File(plugin.getDataFolder(), "channels.dat"));
+		journal = new ModerationJournal(new File(plugin.getDataFolder(), "moderation.journal"), ChatConfiguration.JOURNAL_SYNC.getBoolean());
 	}
 
 	/**
@@ -69,19 +107,16 @@ public class ChannelConfiguration extends YamlConfiguration {
 		channel.setFormat(ChatArguments.fromFormatString(getNode(path + ".format").getString()));
 		channel.setBanMessage(ChatArguments.fromFormatString(getNode(path + ".ban-message").getString()));
 		channel.setIrcEnabled(getNode(path + ".irc.enabled").getBoolean());
+		channel.setIrcChannels(getNode(path + ".irc.channels").getStringList());
 		IrcBot bot = plugin.getBots().get(getNode(path + ".irc.bot").getString());
 		if (bot != null) {
 			channel.connectToIrc(bot);
 		}
-		for (String b : getNode(path + ".banned").getStringList()) {
-			channel.ban(b, false);
-		}
-		for (String m : getNode(path + ".muted").getStringList()) {
-			channel.mute(m);
-		}
+		Map<String, String> censoredWords = new HashMap<String, String>();
 		for (String c : getNode(path + ".censored-words").getKeys(false)) {
-			channel.censor(c, getNode(path + ".censored-words." + c).getString());
+			censoredWords.put(c.toLowerCase(), getNode(path + ".censored-words." + c).getString());
 		}
+		channel.restore(getNode(path + ".banned").getStringList(), getNode(path + ".muted").getStringList(), censoredWords);
 		// Turn auto-save back on
 		channel.setAutoSave(true);
 		channels.add(channel);
@@ -89,31 +124,235 @@ public class ChannelConfiguration extends YamlConfiguration {
 	}
 
 	public void postLoad(Channel channel) {
-		String path = "channels." + channel.getName();
-		for (String n : getNode(path + ".listeners").getStringList()) {
+		List<String> names;
+		if (snapshotListeners != null) {
+			names = snapshotListeners.get(channel.getName());
+		} else {
+			names = getNode("channels." + channel.getName() + ".listeners").getStringList();
+		}
+		List<Chatter> listeners = new ArrayList<Chatter>(names.size());
+		for (String n : names) {
 			Chatter chatter = plugin.getChatters().get(n);
-			if (chatter == null) {
-				continue;
+			if (chatter != null) {
+				listeners.add(chatter);
 			}
-			channel.addListener(chatter);
 		}
+		channel.restoreListeners(listeners);
 	}
 
 	public void postLoad() {
 		for (Channel channel : channels) {
 			postLoad(channel);
 		}
+		snapshotListeners = null;
+	}
+
+	/**
+	 * Schedules a channel to be saved to disk on a background thread.
+	 * @param channel to save
+	 */
+	public void markDirty(Channel channel) {
+		saveQueue.markDirty(channel);
+	}
+
+	/**
+	 * Records a moderation action taken in a channel. The whole channel is
+	 * scheduled to be saved instead if the action can not be recorded.
+	 * @param channel the action was taken in
+	 * @param action taken
+	 * @param subject name or word the action was taken on
+	 * @param value replacement of a censored word or null
+	 */
+	public void journal(Channel channel, Action action, String subject, String value) {
+		try {
+			journal.append(action, channel.getName(), subject, value);
+		} catch (IOException e) {
+			e.printStackTrace();
+			markDirty(channel);
+			return;
+		}
+		if (journal.getSize() >= ChatConfiguration.JOURNAL_COMPACT_SIZE.getInt() && compactRequested.compareAndSet(false, true)) {
+			markDirty(channel);
+		}
+	}
+
+	/**
+	 * Writes every channel to disk and removes the moderation actions that
+	 * are now included in the document from the journal.
+	 */
+	public synchronized void compact() {
+		if (!parse() || !mayReplace()) {
+			// The journal is kept, so nothing is lost
+			return;
+		}
+		long sequence = journal.getSequence();
+		for (Channel channel : channels) {
+			write(channel);
+		}
+		getNode("journal-sequence").setValue(sequence);
+		try {
+			super.save();
+			stamp = FileStamp.of(getFile());
+			journal.truncate(sequence);
+		} catch (ConfigurationException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Replays the moderation actions that are newer than the loaded channels.
+	 * The actions already called their events when they were taken, so they
+	 * are applied to copies that are restored at once.
+	 * @param sequence of the last moderation action included in the loaded channels
+	 */
+	private void replay(long sequence) {
+		Map<Channel, Replayed> replayed = new HashMap<Channel, Replayed>();
+		try {
+			for (ModerationJournal.Entry entry : journal.open(sequence)) {
+				Channel channel = get(entry.getChannel());
+				if (channel == null) {
+					continue;
+				}
+				Replayed state = replayed.get(channel);
+				if (state == null) {
+					state = new Replayed(channel);
+					replayed.put(channel, state);
+				}
+				state.apply(entry);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (Entry<Channel, Replayed> state : replayed.entrySet()) {
+			state.getValue().restore(state.getKey());
+		}
+	}
+
+	/**
+	 * The moderation state of a channel while actions are replayed.
+	 */
+	private static class Replayed {
+		private final Set<String> banned, muted;
+		private final Map<String, String> censoredWords;
+
+		private Replayed(Channel channel) {
+			this(channel.getBanned(), channel.getMuted(), channel.getCensoredWords());
+		}
+
+		private Replayed(Collection<String> banned, Collection<String> muted, Map<String, String> censoredWords) {
+			this.banned = new HashSet<String>(banned);
+			this.muted = new HashSet<String>(muted);
+			this.censoredWords = new HashMap<String, String>(censoredWords);
+		}
+
+		private void apply(ModerationJournal.Entry entry) {
+			switch (entry.getAction()) {
+				case BAN:
+					banned.add(entry.getSubject());
+					break;
+				case UNBAN:
+					banned.remove(entry.getSubject());
+					break;
+				case MUTE:
+					muted.add(entry.getSubject());
+					break;
+				case UNMUTE:
+					muted.remove(entry.getSubject());
+					break;
+				case CENSOR:
+					censoredWords.put(entry.getSubject(), entry.getValue());
+					break;
+			}
+		}
+
+		private void restore(Channel channel) {
+			channel.restore(banned, muted, censoredWords);
+		}
+
+		private boolean matches(Channel channel) {
+			return banned.equals(channel.getBanned()) && muted.equals(channel.getMuted()) && censoredWords.equals(channel.getCensoredWords());
+		}
+	}
+
+	/**
+	 * Calls a single {@link ChannelLoadEvent} for every loaded channel.
+	 */
+	private void callLoadEvents() {
+		for (Channel channel : channels) {
+			plugin.getEngine().getEventManager().callEvent(new ChannelLoadEvent(channel));
+		}
+	}
+
+	/**
+	 * Saves all channels that are scheduled to be saved.
+	 */
+	public void flush() {
+		saveQueue.flush();
+	}
+
+	/**
+	 * Saves all scheduled channels, stops saving in the background, compacts
+	 * the moderation journal and takes a snapshot for the next start.
+	 */
+	public void close() {
+		saveQueue.shutdown();
+		if (journal.getSize() > 0) {
+			compact();
+		}
+		journal.close();
+		if (stamp == null || !stamp.matches(getFile())) {
+			// Load the changed document on the next start instead
+			snapshot.getFile().delete();
+			return;
+		}
+		try {
+			snapshot.write(getFile(), journal.getSequence(), channels.values());
+		} catch (IOException e) {
+			e.printStackTrace();
+			snapshot.getFile().delete();
+		}
 	}
 
 	/**
 	 * Saves a channel to disk
 	 * @param channel to save
 	 */
-	public void save(Channel channel) {
+	public synchronized void save(Channel channel) {
+		if (!mayReplace()) {
+			// Try again once the change on disk is loaded
+			markDirty(channel);
+			return;
+		}
+		write(channel);
+		save();
+	}
+
+	/**
+	 * Saves a batch of channels to disk with a single write.
+	 * @param channels to save
+	 */
+	public synchronized void save(Collection<Channel> channels) {
+		if (!mayReplace()) {
+			// Try again once the change on disk is loaded
+			for (Channel channel : channels) {
+				markDirty(channel);
+			}
+			return;
+		}
+		for (Channel channel : channels) {
+			write(channel);
+		}
+		save();
+	}
+
+	private void write(Channel channel) {
+		parse();
 		String path = "channels." + channel.getName();
 		getNode(path + ".listeners").setValue(ChatConfiguration.getNames(channel.getListeners()));
-		getNode(path + ".banned").setValue(channel.getBanned());
-		getNode(path + ".muted").setValue(channel.getMuted());
+		getNode(path + ".banned").setValue(new ArrayList<String>(channel.getBanned()));
+		getNode(path + ".muted").setValue(new ArrayList<String>(channel.getMuted()));
 		for (Entry<String, String> word : channel.getCensoredWords().entrySet()) {
 			getNode(path + ".censored-words." + word.getKey()).setValue(word.getValue());
 		}
@@ -126,14 +365,15 @@ public class ChannelConfiguration extends YamlConfiguration {
 		getNode(path + ".ban-message").setValue(channel.getBanMessage().toFormatString());
 		getNode(path + ".irc.enabled").setValue(channel.isIrcEnabled());
 		getNode(path + ".irc.bot").setValue(channel.getBotName());
-		save();
+		getNode(path + ".irc.channels").setValue(new ArrayList<String>(channel.getIrcChannels()));
 	}
 
 	/**
 	 * Adds and loads a new channel from the specified name.
 	 * @param channel
 	 */
-	public void add(String channel) {
+	public synchronized void add(String channel) {
+		parse();
 		String path = "channels." + channel;
 		getNode(path + ".radius").setValue(0);
 		getNode(path + ".invite-only").setValue(false);
@@ -143,16 +383,21 @@ public class ChannelConfiguration extends YamlConfiguration {
 		getNode(path + ".ban-message").setValue("{{RED}}You have been {{BOLD}}banned{{RESET}}{{RED}} from " + channel + "!");
 		getNode(path + ".irc.enabled").setValue(false);
 		getNode(path + ".irc.bot").setValue("ChatterBot");
+		boolean saved = mayReplace();
 		save();
-		load(channel);
+		Channel created = load(channel);
+		if (!saved) {
+			markDirty(created);
+		}
+		plugin.getEngine().getEventManager().callEvent(new ChannelLoadEvent(created));
 	}
 
 	/**
-	 * Gets the channel set.
-	 * @return set of channels.
+	 * Gets the loaded channels.
+	 * @return collection of channels.
 	 */
-	public Set<Channel> get() {
-		return channels;
+	public Collection<Channel> get() {
+		return channels.values();
 	}
 
 	/**
@@ -169,18 +414,205 @@ public class ChannelConfiguration extends YamlConfiguration {
 	 * @return channel object
 	 */
 	public Channel get(String channel) {
-		for (Channel c : channels) {
-			if (c.getName().equalsIgnoreCase(channel)) {
-				return c;
+		return channels.get(channel);
+	}
+
+	/**
+	 * Loads 'channels.yml' again if it was changed since it was last read or
+	 * written, and applies only the differences to the loaded channels.
+	 * Moderation actions in the journal that are newer than the document are
+	 * kept.
+	 * @return true if loaded again
+	 */
+	public synchronized boolean reloadIfChanged() {
+		if (stamp == null || stamp.matches(getFile())) {
+			return false;
+		}
+		try {
+			super.load();
+			parsed = true;
+		} catch (ConfigurationException e) {
+			e.printStackTrace();
+			stamp = FileStamp.of(getFile());
+			return false;
+		}
+		stamp = FileStamp.of(getFile());
+		Map<String, List<ModerationJournal.Entry>> journaled = new HashMap<String, List<ModerationJournal.Entry>>();
+		try {
+			for (ModerationJournal.Entry entry : journal.read(getNode("journal-sequence").getLong())) {
+				String name = NamedRegistry.normalize(entry.getChannel());
+				List<ModerationJournal.Entry> entries = journaled.get(name);
+				if (entries == null) {
+					entries = new ArrayList<ModerationJournal.Entry>();
+					journaled.put(name, entries);
+				}
+				entries.add(entry);
 			}
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
-		return null;
+		int changed = 0, added = 0, removed = 0;
+		Set<String> names = new HashSet<String>();
+		for (String name : getNode("channels").getKeys(false)) {
+			names.add(NamedRegistry.normalize(name));
+			Channel channel = get(name);
+			if (channel == null) {
+				channel = load(name);
+				postLoad(channel);
+				plugin.getEngine().getEventManager().callEvent(new ChannelLoadEvent(channel));
+				added++;
+			} else if (apply(channel, "channels." + name, journaled.get(NamedRegistry.normalize(name)))) {
+				changed++;
+			}
+		}
+		for (Channel channel : channels) {
+			if (!names.contains(NamedRegistry.normalize(channel.getName()))) {
+				removed++;
+			}
+		}
+		plugin.getLogger().info("Reloaded " + getFile().getName() + ": " + changed + " channels changed, " + added + " added.");
+		if (removed > 0) {
+			plugin.getLogger().warning(removed + " channels were removed from " + getFile().getName() + " but stay loaded until the plugin is reloaded.");
+		}
+		return true;
+	}
+
+	/**
+	 * Sets every property of a loaded channel that differs from the document.
+	 * @return true if anything differed
+	 */
+	private boolean apply(Channel channel, String path, List<ModerationJournal.Entry> journaled) {
+		boolean changed = false;
+		channel.setAutoSave(false);
+		int radius = getNode(path + ".radius").getInt();
+		if (radius != channel.getRadius()) {
+			channel.setRadius(radius);
+			changed = true;
+		}
+		boolean inviteOnly = getNode(path + ".invite-only").getBoolean();
+		if (inviteOnly != channel.isInviteOnly()) {
+			channel.setInviteOnly(inviteOnly);
+			changed = true;
+		}
+		String password = getNode(path + ".password").getString();
+		if (!equal(password, channel.getPassword())) {
+			channel.setPassword(password);
+			changed = true;
+		}
+		String joinMessage = getNode(path + ".join-message").getString();
+		if (!equal(joinMessage, toFormatString(channel.getJoinMessage()))) {
+			channel.setJoinMessage(ChatArguments.fromFormatString(joinMessage));
+			changed = true;
+		}
+		String leaveMessage = getNode(path + ".leave-message").getString();
+		if (!equal(leaveMessage, toFormatString(channel.getLeaveMessage()))) {
+			channel.setLeaveMessage(ChatArguments.fromFormatString(leaveMessage));
+			changed = true;
+		}
+		String format = getNode(path + ".format").getString();
+		if (!equal(format, toFormatString(channel.getFormat()))) {
+			channel.setFormat(ChatArguments.fromFormatString(format));
+			changed = true;
+		}
+		String banMessage = getNode(path + ".ban-message").getString();
+		if (!equal(banMessage, toFormatString(channel.getBanMessage()))) {
+			channel.setBanMessage(ChatArguments.fromFormatString(banMessage));
+			changed = true;
+		}
+		boolean ircEnabled = getNode(path + ".irc.enabled").getBoolean();
+		if (ircEnabled != channel.isIrcEnabled()) {
+			channel.setIrcEnabled(ircEnabled);
+			changed = true;
+		}
+		Set<String> ircChannels = new LinkedHashSet<String>(getNode(path + ".irc.channels").getStringList());
+		if (!ircChannels.equals(channel.getIrcChannels())) {
+			channel.setIrcChannels(ircChannels);
+			changed = true;
+		}
+		IrcBot bot = plugin.getBots().get(getNode(path + ".irc.bot").getString());
+		if (bot != null && bot != channel.getBot()) {
+			channel.connectToIrc(bot);
+			changed = true;
+		}
+		Map<String, String> censoredWords = new HashMap<String, String>();
+		for (String c : getNode(path + ".censored-words").getKeys(false)) {
+			censoredWords.put(c.toLowerCase(), getNode(path + ".censored-words." + c).getString());
+		}
+		Replayed moderation = new Replayed(getNode(path + ".banned").getStringList(), getNode(path + ".muted").getStringList(), censoredWords);
+		if (journaled != null) {
+			for (ModerationJournal.Entry entry : journaled) {
+				moderation.apply(entry);
+			}
+		}
+		if (!moderation.matches(channel)) {
+			moderation.restore(channel);
+			changed = true;
+		}
+		channel.setAutoSave(true);
+		return changed;
+	}
+
+	private static String toFormatString(ChatArguments args) {
+		return args == null ? null : args.toFormatString();
+	}
+
+	private static boolean equal(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Whether the document on disk may be replaced. While it holds changes
+	 * made by something else that were not loaded yet it may not, so that
+	 * {@link #reloadIfChanged()} loads them instead of them being overwritten.
+	 * Without hot reloading the document is replaced as before.
+	 * @return true if the document may be replaced
+	 */
+	private boolean mayReplace() {
+		if (stamp == null || stamp.matches(getFile()) || ChatConfiguration.RELOAD_INTERVAL.getLong() <= 0) {
+			return true;
+		}
+		plugin.getLogger().warning(getFile().getName() + " was changed on disk, saving waits until the change is loaded.");
+		return false;
+	}
+
+	/**
+	 * Parses the document if the channels were restored from a snapshot, so
+	 * that writing it keeps the channels that were not changed.
+	 * @return true if the document is parsed
+	 */
+	private synchronized boolean parse() {
+		if (!parsed) {
+			try {
+				super.load();
+				parsed = true;
+			} catch (ConfigurationException e) {
+				e.printStackTrace();
+			}
+		}
+		return parsed;
 	}
 
 	@Override
 	public void load() {
+		try {
+			ChannelSnapshot.Contents contents = snapshot.read(plugin, getFile());
+			if (contents != null) {
+				for (Channel channel : contents.getChannels()) {
+					channels.add(channel);
+				}
+				snapshotListeners = contents.getListeners();
+				stamp = FileStamp.of(getFile());
+				replay(contents.getSequence());
+				callLoadEvents();
+				return;
+			}
+		} catch (IOException e) {
+			plugin.getLogger().warning("Could not read " + snapshot.getFile().getName() + ", loading " + getFile().getName() + " instead: " + e.getMessage());
+		}
 		try {
 			super.load();
+			parsed = true;
+			stamp = FileStamp.of(getFile());
 			if (!getNode("channels").isAttached()) {
 				getNode("channels.spout.format").setValue("[{{DARK_CYAN}}spout{{WHITE}}] {MESSAGE}");
 				getNode("channels.spout.invite-only").setValue(false);
@@ -196,15 +628,25 @@ public class ChannelConfiguration extends YamlConfiguration {
 			for (String name : getNode("channels").getKeys(false)) {
 				load(name);
 			}
+			replay(getNode("journal-sequence").getLong());
+			callLoadEvents();
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
 		}
 	}
 
 	@Override
-	public void save() {
+	public synchronized void save() {
+		if (!parse()) {
+			// Writing now would drop the channels that are only in memory
+			return;
+		}
+		if (!mayReplace()) {
+			return;
+		}
 		try {
 			super.save();
+			stamp = FileStamp.of(getFile());
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
 		}
@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Set;
 
 import net.windwaker.chat.WindChat;
+import net.windwaker.chat.io.FileStamp;
 
 import org.spout.api.exception.ConfigurationException;
 import org.spout.api.util.Named;
@@ -79,31 +80,170 @@ public class ChatConfiguration extends ConfigurationHolderConfiguration {
 	 * Whether chat should be logged to disk
 	 */
 	public static final ConfigurationHolder LOG_CHAT = new ConfigurationHolder(true, "log-chat");
+	/**
+	 * How long in milliseconds a chatter's channel permission decisions are cached
+	 */
+	public static final ConfigurationHolder PERMISSION_CACHE_TTL = new ConfigurationHolder(30000, "permission-cache-ttl");
+	/**
+	 * The most messages received over IRC that are processed per tick
+	 */
+	public static final ConfigurationHolder IRC_INBOUND_BUDGET = new ConfigurationHolder(20, "irc-inbound-budget");
+	/**
+	 * Whether censored words only match whole words instead of anywhere in a message
+	 */
+	public static final ConfigurationHolder CENSOR_WHOLE_WORDS = new ConfigurationHolder(true, "censor-whole-words");
+	/**
+	 * The maximum amount of chat messages waiting to be written to the log
+	 */
+	public static final ConfigurationHolder LOG_QUEUE_SIZE = new ConfigurationHolder(8192, "log-queue-size");
+	/**
+	 * What to do when the log queue is full: 'drop-oldest', 'drop-newest' or 'block'
+	 */
+	public static final ConfigurationHolder LOG_OVERFLOW_POLICY = new ConfigurationHolder("drop-oldest", "log-overflow-policy");
+	/**
+	 * How often in milliseconds the chat log is flushed
+	 */
+	public static final ConfigurationHolder LOG_FLUSH_INTERVAL = new ConfigurationHolder(1000, "log-flush-interval");
+	/**
+	 * How often in milliseconds the chat log is forced to disk, 0 to leave it to the system
+	 */
+	public static final ConfigurationHolder LOG_SYNC_INTERVAL = new ConfigurationHolder(10000, "log-sync-interval");
+	/**
+	 * The size in megabytes at which a new chat log file is started, 0 for no limit
+	 */
+	public static final ConfigurationHolder LOG_MAX_SIZE = new ConfigurationHolder(16, "log-max-size");
+	/**
+	 * The time in hours after which a new chat log file is started, 0 for no limit
+	 */
+	public static final ConfigurationHolder LOG_ROTATE_PERIOD = new ConfigurationHolder(24, "log-rotate-period");
+	/**
+	 * Whether closed chat log files are compressed
+	 */
+	public static final ConfigurationHolder LOG_COMPRESS = new ConfigurationHolder(true, "log-compress");
+	/**
+	 * The age in days at which closed chat log files are deleted, 0 to keep forever
+	 */
+	public static final ConfigurationHolder LOG_RETENTION_DAYS = new ConfigurationHolder(30, "log-retention-days");
+	/**
+	 * The total size in megabytes of closed chat log files to keep, 0 for no limit
+	 */
+	public static final ConfigurationHolder LOG_RETENTION_SIZE = new ConfigurationHolder(1024, "log-retention-size");
+
+	/**
+	 * The time in milliseconds between samples of the message rates, 0 to not sample
+	 */
+	public static final ConfigurationHolder METRICS_INTERVAL = new ConfigurationHolder(60000, "metrics-interval");
+
+	/**
+	 * Whether to write all metrics to 'metrics.yml' after every sample
+	 */
+	public static final ConfigurationHolder METRICS_SNAPSHOT = new ConfigurationHolder(true, "metrics-snapshot");
+	/**
+	 * Whether broadcasts should be processed off of the main thread
+	 */
+	public static final ConfigurationHolder ASYNC_BROADCAST = new ConfigurationHolder(true, "async-broadcast");
+	/**
+	 * The amount of threads processing broadcasts
+	 */
+	public static final ConfigurationHolder BROADCAST_THREADS = new ConfigurationHolder(2, "broadcast-threads");
+	/**
+	 * The maximum amount of broadcasts waiting to be processed before new ones are dropped
+	 */
+	public static final ConfigurationHolder BROADCAST_QUEUE_SIZE = new ConfigurationHolder(1024, "broadcast-queue-size");
+
+	/**
+	 * The width in blocks of a cell in the index used by ranged channels
+	 */
+	public static final ConfigurationHolder SPATIAL_CELL_SIZE = new ConfigurationHolder(32, "spatial-cell-size");
+	/**
+	 * How often in milliseconds the positions used by ranged channels are updated
+	 */
+	public static final ConfigurationHolder SPATIAL_UPDATE_INTERVAL = new ConfigurationHolder(250, "spatial-update-interval");
+
+	/**
+	 * How long in milliseconds after the last change a channel is written to disk
+	 */
+	public static final ConfigurationHolder SAVE_DELAY = new ConfigurationHolder(5000, "save-delay");
+	/**
+	 * The longest time in milliseconds a changed channel may wait to be written to disk
+	 */
+	public static final ConfigurationHolder SAVE_MAX_DELAY = new ConfigurationHolder(30000, "save-max-delay");
+
+	/**
+	 * Whether every ban, mute and censor is forced to disk before it takes effect
+	 */
+	public static final ConfigurationHolder JOURNAL_SYNC = new ConfigurationHolder(false, "journal-sync");
+	/**
+	 * The amount of moderation actions recorded after which the channels are written out in full
+	 */
+	public static final ConfigurationHolder JOURNAL_COMPACT_SIZE = new ConfigurationHolder(1000, "journal-compact-size");
+
+	/**
+	 * The amount of players that left whose profiles are kept in memory for when they rejoin
+	 */
+	public static final ConfigurationHolder RECENT_CHATTERS = new ConfigurationHolder(128, "recent-chatters");
+
+	/**
+	 * The amount of recent lines each channel keeps to show to joining chatters
+	 */
+	public static final ConfigurationHolder HISTORY_SIZE = new ConfigurationHolder(20, "history-size");
+
+	/**
+	 * The age in milliseconds after which recent lines are no longer shown to joining chatters
+	 */
+	public static final ConfigurationHolder HISTORY_WINDOW = new ConfigurationHolder(600000, "history-window");
+
+	/**
+	 * How often in milliseconds the configuration files are checked for changes, 0 to not check
+	 */
+	public static final ConfigurationHolder RELOAD_INTERVAL = new ConfigurationHolder(2000, "reload-interval");
+	private final File file;
+	private FileStamp stamp;
 
 	/**
 	 * Constructs a new ChatConfiguration at 'plugins/WindChat/config.yml'
 	 */
 	public ChatConfiguration(WindChat plugin) {
-		super(new YamlConfiguration(new File(plugin.getDataFolder(), "config.yml")));
+		this(new File(plugin.getDataFolder(), "config.yml"));
+	}
+
+	private ChatConfiguration(File file) {
+		super(new YamlConfiguration(file));
+		this.file = file;
 	}
 
 	@Override
-	public void load() {
+	public synchronized void load() {
 		try {
 			super.load();
 			super.save();
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
 		}
+		stamp = FileStamp.of(file);
+	}
+
+	/**
+	 * Loads the settings again if 'config.yml' was changed since it was last
+	 * loaded.
+	 * @return true if loaded again
+	 */
+	public synchronized boolean reloadIfChanged() {
+		if (stamp == null || stamp.matches(file)) {
+			return false;
+		}
+		load();
+		return true;
 	}
 
 	@Override
-	public void save() {
+	public synchronized void save() {
 		try {
 			super.save();
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
 		}
+		stamp = FileStamp.of(file);
 	}
 
 	public static <T extends Named> List<String> getNames(Set<T> named) {
@@ -22,72 +22,235 @@
 package net.windwaker.chat.io.yaml;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.windwaker.chat.WindChat;
 import net.windwaker.chat.chan.Channel;
 import net.windwaker.chat.chan.Chatter;
+import net.windwaker.chat.chan.ChatterProfile;
+import net.windwaker.chat.event.chatter.ChatterLoadEvent;
+import net.windwaker.chat.io.WriteBehindQueue;
+import net.windwaker.chat.util.NamedRegistry;
 
 import org.spout.api.entity.Player;
 import org.spout.api.exception.ConfigurationException;
-import org.spout.api.util.config.yaml.YamlConfiguration;
 
 /**
- * Represents a collection of {@link Chatter}s
+ * Represents a collection of {@link Chatter}s. Each chatter is stored in its
+ * own file of a {@link ChatterStore}, so joining reads one record and saving
+ * writes one record.
  */
-public class ChatterConfiguration extends YamlConfiguration {
+public class ChatterConfiguration {
 	private final WindChat plugin;
-	private final Set<Chatter> chatters = new HashSet<Chatter>();
+	private final ChatterStore store;
+	private final NamedRegistry<Chatter> chatters = new NamedRegistry<Chatter>();
+	private final ConcurrentMap<UUID, Chatter> chattersById = new ConcurrentHashMap<UUID, Chatter>();
+	private final Map<String, ChatterProfile> recent;
+	private final ConcurrentMap<String, ChatterProfile> pending = new ConcurrentHashMap<String, ChatterProfile>();
+	private final WriteBehindQueue<String> saveQueue;
 
 	/**
-	 * Constructs a new ChatterConfiguration at 'plugins/WindChat/chatters.yml'
+	 * Constructs a new ChatterConfiguration at 'plugins/WindChat/chatters/'
 	 */
 	public ChatterConfiguration(WindChat plugin) {
-		super(new File(plugin.getDataFolder(), "chatters.yml"));
 		this.plugin = plugin;
+		store = new ChatterStore(new File(plugin.getDataFolder(), "chatters"));
+		final int recentSize = ChatConfiguration.RECENT_CHATTERS.getInt();
+		recent = new LinkedHashMap<String, ChatterProfile>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ChatterProfile> eldest) {
+				return size() > recentSize;
+			}
+		};
+		saveQueue = new WriteBehindQueue<String>("Chatter-Save", new WriteBehindQueue.Writer<String>() {
+			@Override
+			public void write(Collection<String> names) {
+				for (String name : names) {
+					// Stays pending until written, so a rejoin reads the newest profile
+					ChatterProfile profile = pending.get(name);
+					if (profile == null) {
+						continue;
+					}
+					if (store(profile)) {
+						// Unless it was saved again in the meantime
+						pending.remove(name, profile);
+					} else {
+						saveQueue.markDirty(name);
+					}
+				}
+			}
+		}, ChatConfiguration.SAVE_DELAY.getLong(), ChatConfiguration.SAVE_MAX_DELAY.getLong());
 	}
 
 	/**
-	 * Handles the login process of the plugin for a player.
+	 * Handles the login process of the plugin for a player. The profile of a
+	 * player that left recently is taken from memory instead of being read.
 	 * @param player to login
 	 */
 	public Chatter load(Player player) {
+		ChatterProfile profile;
+		synchronized (recent) {
+			profile = recent.remove(NamedRegistry.normalize(player.getName()));
+		}
+		if (profile == null) {
+			profile = read(player.getName());
+		}
 		Chatter chatter = new Chatter(plugin, player);
-		String path = "chatters." + player.getName();
-		chatter.setAutoSave(false);
 		ChannelConfiguration channels = plugin.getChannels();
-		for (String channel : getNode(path + ".channels").getStringList()) {
-			Channel c = channels.get(channel);
-			if (c != null) {
-				chatter.join(c, null, false);
-			}
-		}
-		Channel activeChannel = channels.get(getNode(path + ".active-channel").getString());
+		Channel activeChannel = channels.get(profile.getActiveChannel());
 		if (activeChannel == null) {
 			activeChannel = channels.getDefault();
 		}
-		chatter.join(activeChannel);
+		chatter.restore(get(channels, profile.getChannels()), get(channels, profile.getInvites()), activeChannel);
 		chatter.setAutoSave(true);
-		chatters.add(chatter);
+		add(chatter);
+		plugin.getEngine().getEventManager().callEvent(new ChatterLoadEvent(chatter));
+		// Greet the player in the channel they chat in
+		player.sendMessage(activeChannel.getJoinMessage());
+		activeChannel.getHistory().replay(player, System.currentTimeMillis());
 		return chatter;
 	}
 
+	private static List<Channel> get(ChannelConfiguration channels, Collection<String> names) {
+		List<Channel> found = new ArrayList<Channel>(names.size());
+		for (String name : names) {
+			Channel channel = channels.get(name);
+			if (channel != null) {
+				found.add(channel);
+			}
+		}
+		return found;
+	}
+
+	private ChatterProfile read(String name) {
+		// A save that is still queued is newer than the file
+		ChatterProfile profile = pending.get(NamedRegistry.normalize(name));
+		if (profile != null) {
+			return profile;
+		}
+		try {
+			profile = store.read(name);
+		} catch (ConfigurationException e) {
+			e.printStackTrace();
+		}
+		return profile == null ? ChatterProfile.empty(name) : profile;
+	}
+
+	private boolean store(ChatterProfile profile) {
+		try {
+			store.write(profile);
+			return true;
+		} catch (ConfigurationException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+
+	/**
+	 * Called when the player of a chatter leaves the server. Its channels are
+	 * saved to its own profile, so it is taken out of them without saving the
+	 * channels, and it is forgotten. The profile is kept in memory for a
+	 * while in case the player rejoins.
+	 * @param chatter that left
+	 */
+	public void unload(Chatter chatter) {
+		save(chatter);
+		for (Channel channel : new ArrayList<Channel>(chatter.getChannels())) {
+			channel.detachListener(chatter);
+		}
+		remove(chatter);
+		synchronized (recent) {
+			recent.put(NamedRegistry.normalize(chatter.getName()), ChatterProfile.of(chatter));
+		}
+	}
+
+	/**
+	 * Captures the current state of a chatter and schedules its record to be
+	 * written.
+	 * @param chatter to save
+	 */
 	public void save(Chatter chatter) {
-		String path = "chatters." + chatter;
-		getNode(path + ".channels").setValue(ChatConfiguration.getNames(chatter.getChannels()));
-		getNode(path + ".invites").setValue(ChatConfiguration.getNames(chatter.getInvites()));
-		getNode(path + ".active-channel").setValue(chatter.getActiveChannel().getName());
+		String name = NamedRegistry.normalize(chatter.getName());
+		pending.put(name, ChatterProfile.of(chatter));
+		saveQueue.markDirty(name);
+	}
+
+	/**
+	 * Forgets the cached permission decisions of every chatter. Spout calls
+	 * no event when permissions or groups change, so plugins that change
+	 * them can call this to make the change take effect before the cache
+	 * expires.
+	 */
+	public void invalidatePermissions() {
+		for (Chatter chatter : chatters.values()) {
+			chatter.invalidatePermissions();
+		}
+	}
+
+	/**
+	 * Writes all pending changes of chatters to disk.
+	 */
+	public void flush() {
+		saveQueue.flush();
+	}
+
+	/**
+	 * Writes all pending changes and stops saving in the background.
+	 */
+	public void close() {
+		saveQueue.shutdown();
+	}
+
+	/**
+	 * Adds a chatter to the collection, replacing any chatter with the same
+	 * name or player id.
+	 * @param chatter to add
+	 */
+	public void add(Chatter chatter) {
+		Chatter replaced = chatters.add(chatter);
+		if (replaced != null) {
+			removeId(replaced);
+		}
+		if (chatter.getParent() instanceof Player) {
+			chattersById.put(((Player) chatter.getParent()).getUID(), chatter);
+		}
+	}
+
+	/**
+	 * Removes a chatter from the collection.
+	 * @param chatter to remove
+	 * @return true if removed
+	 */
+	public boolean remove(Chatter chatter) {
+		if (!chatters.remove(chatter)) {
+			return false;
+		}
+		removeId(chatter);
+		return true;
+	}
+
+	private void removeId(Chatter chatter) {
+		if (chatter.getParent() instanceof Player) {
+			chattersById.remove(((Player) chatter.getParent()).getUID(), chatter);
+		}
 	}
 
 	/**
 	 * Gets the collection of chatters.
-	 * @return set of chatters
+	 * @return collection of chatters
 	 */
-	public Set<Chatter> get() {
-		return chatters;
+	public Collection<Chatter> get() {
+		return chatters.values();
 	}
 
 	/**
@@ -96,29 +259,42 @@ public class ChatterConfiguration extends YamlConfiguration {
 	 * @return chatter from name
 	 */
 	public Chatter get(String name) {
-		for (Chatter chatter : chatters) {
-			if (chatter.getParent().getName().equalsIgnoreCase(name)) {
-				return chatter;
-			}
-		}
-		return null;
+		return chatters.get(name);
+	}
+
+	/**
+	 * Gets a chatter from the id of its player
+	 * @param id of player
+	 * @return chatter from id
+	 */
+	public Chatter get(UUID id) {
+		return chattersById.get(id);
 	}
 
-	@Override
+	/**
+	 * Moves the chatters of an old 'chatters.yml' into the store.
+	 */
 	public void load() {
+		File legacy = new File(plugin.getDataFolder(), "chatters.yml");
 		try {
-			super.load();
+			int migrated = store.migrate(legacy);
+			if (migrated > 0) {
+				plugin.getLogger().info("Moved " + migrated + " chatters from " + legacy.getName() + " into separate files.");
+			}
 		} catch (ConfigurationException e) {
 			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
 		}
 	}
 
-	@Override
+	/**
+	 * Saves every loaded chatter and writes all pending changes to disk.
+	 */
 	public void save() {
-		try {
-			super.save();
-		} catch (ConfigurationException e) {
-			e.printStackTrace();
+		for (Chatter chatter : chatters.values()) {
+			save(chatter);
 		}
+		flush();
 	}
 }
@@ -0,0 +1,157 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.io.yaml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import net.windwaker.chat.chan.ChatterProfile;
+
+import org.spout.api.exception.ConfigurationException;
+import org.spout.api.util.config.yaml.YamlConfiguration;
+
+/**
+ * Stores each {@link ChatterProfile} in its own small file, spread over 256
+ * folders by the hash of the player name, e.g.
+ * 'plugins/WindChat/chatters/3f/windwaker.yml'. Loading or saving a chatter
+ * only touches its own file.
+ */
+public class ChatterStore {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	private final File folder;
+
+	/**
+	 * Constructs a new ChatterStore in the specified folder.
+	 * @param folder to store in
+	 */
+	public ChatterStore(File folder) {
+		this.folder = folder;
+	}
+
+	/**
+	 * Gets the file the profile of the specified player is stored in.
+	 * Characters other than letters, digits, '_' and '-' are escaped as '%'
+	 * and the hex of their UTF-8 bytes, so no two names share a file.
+	 * @param name of player
+	 * @return file of player
+	 */
+	public File getFile(String name) {
+		String key = encode(name.toLowerCase(Locale.ENGLISH));
+		String shard = Integer.toHexString(0x100 | (key.hashCode() & 0xFF)).substring(1);
+		return new File(new File(folder, shard), key + ".yml");
+	}
+
+	private static String encode(String name) {
+		StringBuilder key = new StringBuilder(name.length());
+		for (byte b : name.getBytes(UTF_8)) {
+			if (b >= 'a' && b <= 'z' || b >= '0' && b <= '9' || b == '_' || b == '-') {
+				key.append((char) b);
+			} else {
+				key.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+			}
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Reads the profile of the specified player.
+	 * @param name of player
+	 * @return profile or null if the player has none
+	 * @throws ConfigurationException if the file could not be read
+	 */
+	public ChatterProfile read(String name) throws ConfigurationException {
+		File file = getFile(name);
+		if (!file.exists()) {
+			return null;
+		}
+		YamlConfiguration in = new YamlConfiguration(file);
+		in.load();
+		return new ChatterProfile(name, in.getNode("channels").getStringList(), in.getNode("invites").getStringList(), in.getNode("active-channel").getString());
+	}
+
+	/**
+	 * Writes a profile, replacing the file of the player only once the new
+	 * file is complete. Every write uses its own temporary file, so writes of
+	 * the same player never mix.
+	 * @param profile to write
+	 * @throws ConfigurationException if the file could not be written
+	 */
+	public void write(ChatterProfile profile) throws ConfigurationException {
+		File file = getFile(profile.getName());
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs()) {
+			throw new ConfigurationException("Could not create " + parent);
+		}
+		File temp;
+		try {
+			temp = File.createTempFile(file.getName(), ".tmp", parent);
+		} catch (IOException e) {
+			throw new ConfigurationException("Could not create a temporary file for " + file, e);
+		}
+		try {
+			YamlConfiguration out = new YamlConfiguration(temp);
+			out.getNode("channels").setValue(profile.getChannels());
+			out.getNode("invites").setValue(profile.getInvites());
+			out.getNode("active-channel").setValue(profile.getActiveChannel());
+			out.save();
+			if (!temp.renameTo(file)) {
+				// Some platforms can not rename over an existing file
+				if (!file.delete() || !temp.renameTo(file)) {
+					throw new ConfigurationException("Could not replace " + file);
+				}
+			}
+		} finally {
+			// Only left over if the write failed
+			temp.delete();
+		}
+	}
+
+	/**
+	 * Moves every chatter of a single document in the old format into the
+	 * store, then renames the document so it is only migrated once.
+	 * @param legacy document to migrate
+	 * @return amount of migrated chatters
+	 * @throws ConfigurationException if the document could not be read or a chatter could not be written
+	 * @throws IOException if the document could not be renamed
+	 */
+	public int migrate(File legacy) throws ConfigurationException, IOException {
+		if (!legacy.exists()) {
+			return 0;
+		}
+		YamlConfiguration in = new YamlConfiguration(legacy);
+		in.load();
+		int migrated = 0;
+		for (String name : in.getNode("chatters").getKeys(false)) {
+			String path = "chatters." + name;
+			write(new ChatterProfile(name, in.getNode(path + ".channels").getStringList(), in.getNode(path + ".invites").getStringList(), in.getNode(path + ".active-channel").getString()));
+			migrated++;
+		}
+		File done = new File(legacy.getParentFile(), legacy.getName() + ".migrated");
+		if (!legacy.renameTo(done)) {
+			throw new IOException("Could not rename " + legacy + " to " + done);
+		}
+		return migrated;
+	}
+}
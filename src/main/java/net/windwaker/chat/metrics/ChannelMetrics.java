@@ -0,0 +1,136 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.metrics;
+
+/**
+ * The load of a single {@link net.windwaker.chat.chan.Channel}.
+ */
+public class ChannelMetrics {
+	private final Counter messages = new Counter(), deliveries = new Counter(), censored = new Counter(), dropped = new Counter();
+	private final Histogram fanOut = new Histogram(), latency = new Histogram();
+	private long lastMessages, lastSample = System.nanoTime();
+	private volatile double rate;
+
+	/**
+	 * Records a processed broadcast.
+	 * 
+	 * @param audience amount of chatters the broadcast was sent to
+	 * @param nanos between accepting the broadcast and the last delivery
+	 */
+	public void broadcast(int audience, long nanos) {
+		messages.increment();
+		deliveries.add(audience);
+		fanOut.record(audience);
+		latency.record(nanos);
+	}
+
+	/**
+	 * Records a message that had censored words replaced.
+	 */
+	public void censored() {
+		censored.increment();
+	}
+
+	/**
+	 * Records a broadcast that was dropped because the pipeline was full.
+	 */
+	public void dropped() {
+		dropped.increment();
+	}
+
+	/**
+	 * Updates the message rate from the messages since the last sample.
+	 */
+	public synchronized void sample() {
+		long now = System.nanoTime();
+		long messages = this.messages.get();
+		if (now > lastSample) {
+			rate = (messages - lastMessages) * 1e9 / (now - lastSample);
+		}
+		lastMessages = messages;
+		lastSample = now;
+	}
+
+	/**
+	 * Gets the messages per second between the last two samples.
+	 * 
+	 * @return message rate
+	 */
+	public double getRate() {
+		return rate;
+	}
+
+	/**
+	 * Gets the amount of broadcast messages.
+	 * 
+	 * @return messages
+	 */
+	public long getMessages() {
+		return messages.get();
+	}
+
+	/**
+	 * Gets the amount of messages sent to chatters.
+	 * 
+	 * @return deliveries
+	 */
+	public long getDeliveries() {
+		return deliveries.get();
+	}
+
+	/**
+	 * Gets the amount of messages that had censored words replaced.
+	 * 
+	 * @return censored messages
+	 */
+	public long getCensored() {
+		return censored.get();
+	}
+
+	/**
+	 * Gets the amount of broadcasts dropped because the pipeline was full.
+	 * 
+	 * @return dropped broadcasts
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Gets the amount of chatters each broadcast was sent to.
+	 * 
+	 * @return fan-out histogram
+	 */
+	public Histogram getFanOut() {
+		return fanOut;
+	}
+
+	/**
+	 * Gets the nanoseconds between accepting each broadcast and its last
+	 * delivery.
+	 * 
+	 * @return latency histogram
+	 */
+	public Histogram getLatency() {
+		return latency;
+	}
+}
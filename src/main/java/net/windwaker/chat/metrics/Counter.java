@@ -0,0 +1,72 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that is cheap to increment from many threads at once. Threads
+ * add to one of several stripes that each sit on their own cache line and
+ * reading the counter sums the stripes.
+ */
+public class Counter {
+	// Longs per 64 byte cache line
+	private static final int STRIDE = 8;
+	private static final int STRIPES = stripes();
+	private final AtomicLongArray cells = new AtomicLongArray(STRIPES * STRIDE);
+
+	private static int stripes() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		return Math.min(64, Integer.highestOneBit(Math.max(1, processors) * 2 - 1) * 2);
+	}
+
+	/**
+	 * Adds one to the counter.
+	 */
+	public void increment() {
+		add(1);
+	}
+
+	/**
+	 * Adds the specified amount to the counter.
+	 * 
+	 * @param amount to add
+	 */
+	public void add(long amount) {
+		long id = Thread.currentThread().getId();
+		int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+		cells.getAndAdd(((hash >>> 16) & (STRIPES - 1)) * STRIDE, amount);
+	}
+
+	/**
+	 * Gets the current value of the counter.
+	 * 
+	 * @return value
+	 */
+	public long get() {
+		long sum = 0;
+		for (int i = 0; i < STRIPES; i++) {
+			sum += cells.get(i * STRIDE);
+		}
+		return sum;
+	}
+}
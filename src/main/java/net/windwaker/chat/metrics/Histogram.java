@@ -0,0 +1,130 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of non-negative values. Values are counted in
+ * buckets that split every power of two in four, so a reported percentile
+ * is at most 25% above the real one.
+ */
+public class Histogram {
+	private static final int SUB_BUCKETS = 4, SUB_BITS = 2;
+	private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+	private final Counter count = new Counter(), sum = new Counter();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value, negative values are recorded as 0.
+	 * 
+	 * @param value to record
+	 */
+	public void record(long value) {
+		value = Math.max(0, value);
+		buckets.incrementAndGet(bucket(value));
+		count.increment();
+		sum.add(value);
+		long current;
+		while (value > (current = max.get())) {
+			if (max.compareAndSet(current, value)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Gets the amount of recorded values.
+	 * 
+	 * @return amount of values
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * Gets the average of the recorded values.
+	 * 
+	 * @return mean or 0 if nothing was recorded
+	 */
+	public double getMean() {
+		long count = this.count.get();
+		return count == 0 ? 0 : (double) sum.get() / count;
+	}
+
+	/**
+	 * Gets the largest recorded value.
+	 * 
+	 * @return max
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the value that the specified fraction of recorded values are at
+	 * or below.
+	 * 
+	 * @param fraction between 0 and 1
+	 * @return upper bound of the percentile or 0 if nothing was recorded
+	 */
+	public long getPercentile(double fraction) {
+		long[] counts = new long[buckets.length()];
+		long total = 0;
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long target = Math.max(1, (long) Math.ceil(fraction * total));
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= target) {
+				return Math.min(upperBound(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	private static int bucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return exponent * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS;
+		long sub = bucket % SUB_BUCKETS;
+		long width = 1L << (exponent - SUB_BITS);
+		return ((SUB_BUCKETS + sub) * width) + width - 1;
+	}
+}
@@ -0,0 +1,209 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.metrics;
+
+import java.io.File;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.windwaker.chat.WindChat;
+import net.windwaker.chat.chan.Channel;
+import net.windwaker.chat.chan.IrcBot;
+import net.windwaker.chat.chan.IrcOutboundQueue;
+import net.windwaker.chat.io.ChatLogger;
+import net.windwaker.chat.util.NamedThreadFactory;
+
+import org.spout.api.exception.ConfigurationException;
+import org.spout.api.util.config.yaml.YamlConfiguration;
+
+/**
+ * Collects the load of the plugin. Per channel load is kept in the
+ * {@link ChannelMetrics} of each {@link Channel}. Message rates are sampled
+ * periodically on a background thread, which can also write a snapshot of
+ * every metric to 'DATA_FOLDER/metrics.yml'.
+ */
+public class Metrics implements Runnable {
+	private final WindChat plugin;
+	private final Counter chats = new Counter(), privateMessages = new Counter();
+	private final Counter permissionChecks = new Counter(), permissionMisses = new Counter();
+	private ScheduledExecutorService executor;
+	private volatile boolean snapshot;
+
+	public Metrics(WindChat plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Starts sampling at the specified interval, restarting if already
+	 * started.
+	 * 
+	 * @param interval in milliseconds, or 0 to not sample
+	 * @param snapshot whether to write a snapshot after every sample
+	 */
+	public synchronized void start(long interval, boolean snapshot) {
+		stop();
+		this.snapshot = snapshot;
+		if (interval <= 0) {
+			return;
+		}
+		executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("Metrics"));
+		executor.scheduleAtFixedRate(this, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stops sampling.
+	 */
+	public synchronized void stop() {
+		if (executor != null) {
+			executor.shutdownNow();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Records a chat message sent by a chatter.
+	 */
+	public void chat() {
+		chats.increment();
+	}
+
+	/**
+	 * Records a private message.
+	 */
+	public void privateMessage() {
+		privateMessages.increment();
+	}
+
+	/**
+	 * Records a channel permission check of a chatter.
+	 * 
+	 * @param cached whether the decision was cached
+	 */
+	public void permissionCheck(boolean cached) {
+		permissionChecks.increment();
+		if (!cached) {
+			permissionMisses.increment();
+		}
+	}
+
+	/**
+	 * Gets the amount of chat messages sent by chatters.
+	 * 
+	 * @return chat messages
+	 */
+	public long getChats() {
+		return chats.get();
+	}
+
+	/**
+	 * Gets the amount of private messages.
+	 * 
+	 * @return private messages
+	 */
+	public long getPrivateMessages() {
+		return privateMessages.get();
+	}
+
+	/**
+	 * Gets the amount of channel permission checks of chatters.
+	 * 
+	 * @return permission checks
+	 */
+	public long getPermissionChecks() {
+		return permissionChecks.get();
+	}
+
+	/**
+	 * Gets the amount of channel permission checks that were not cached.
+	 * 
+	 * @return permission cache misses
+	 */
+	public long getPermissionMisses() {
+		return permissionMisses.get();
+	}
+
+	@Override
+	public void run() {
+		try {
+			for (Channel channel : plugin.getChannels().get()) {
+				channel.getMetrics().sample();
+			}
+			if (snapshot) {
+				write(new File(plugin.getDataFolder(), "metrics.yml"));
+			}
+		} catch (Exception e) {
+			plugin.getLogger().warning("Could not sample metrics: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes every metric to the specified file.
+	 * 
+	 * @param file to write to
+	 * @throws ConfigurationException if the file could not be written
+	 */
+	public void write(File file) throws ConfigurationException {
+		YamlConfiguration out = new YamlConfiguration(file);
+		out.getNode("time").setValue(System.currentTimeMillis());
+		out.getNode("pipeline.pending").setValue(plugin.getBroadcastPipeline().getPending());
+		out.getNode("chatters.chats").setValue(getChats());
+		out.getNode("chatters.private-messages").setValue(getPrivateMessages());
+		out.getNode("chatters.permission-checks").setValue(getPermissionChecks());
+		out.getNode("chatters.permission-misses").setValue(getPermissionMisses());
+		ChatLogger logger = plugin.getChatLogger();
+		out.getNode("log.queued").setValue(logger.getQueued());
+		out.getNode("log.written").setValue(logger.getWritten());
+		out.getNode("log.dropped").setValue(logger.getDropped());
+		write(out, "log.latency-ms", logger.getWriteLatency(), 1);
+		for (IrcBot bot : plugin.getBots().get()) {
+			String path = "bots." + bot.getName();
+			IrcOutboundQueue outbound = bot.getOutboundQueue();
+			if (outbound != null) {
+				out.getNode(path + ".outbound.queued").setValue(outbound.getQueued());
+				out.getNode(path + ".outbound.sent").setValue(outbound.getSent());
+				out.getNode(path + ".outbound.dropped").setValue(outbound.getDropped());
+			}
+			out.getNode(path + ".inbound.queued").setValue(bot.getInboundQueued());
+			out.getNode(path + ".inbound.dropped").setValue(bot.getInboundDropped());
+		}
+		for (Channel channel : plugin.getChannels().get()) {
+			String path = "channels." + channel.getName();
+			ChannelMetrics metrics = channel.getMetrics();
+			out.getNode(path + ".rate").setValue(metrics.getRate());
+			out.getNode(path + ".messages").setValue(metrics.getMessages());
+			out.getNode(path + ".deliveries").setValue(metrics.getDeliveries());
+			out.getNode(path + ".censored").setValue(metrics.getCensored());
+			out.getNode(path + ".dropped").setValue(metrics.getDropped());
+			write(out, path + ".fan-out", metrics.getFanOut(), 1);
+			write(out, path + ".latency-ms", metrics.getLatency(), 1000000);
+		}
+		out.save();
+	}
+
+	private void write(YamlConfiguration out, String path, Histogram histogram, double scale) {
+		out.getNode(path + ".mean").setValue(histogram.getMean() / scale);
+		out.getNode(path + ".p50").setValue(histogram.getPercentile(0.5) / scale);
+		out.getNode(path + ".p99").setValue(histogram.getPercentile(0.99) / scale);
+		out.getNode(path + ".max").setValue(histogram.getMax() / scale);
+	}
+}
@@ -0,0 +1,201 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * Finds and replaces every censored word of a dictionary in a single pass
+ * over a message using an Aho-Corasick automaton. Matching ignores case, and
+ * overlapping matches are resolved by taking the leftmost and then the
+ * longest word. The matcher is immutable once built.
+ */
+public class CensorMatcher {
+	private static final int ROOT = 0;
+	private final boolean wholeWords;
+	private final String[] replacements;
+	private final int[] lengths;
+	// Transitions of each state, sorted by character
+	private final char[][] keys;
+	private final int[][] targets;
+	private final int[] fail;
+	// The word ending at a state or -1, and the nearest state on the fail chain that ends a word
+	private final int[] word;
+	private final int[] output;
+
+	/**
+	 * Builds a new CensorMatcher.
+	 * 
+	 * @param words censored words mapped to their replacements
+	 * @param wholeWords whether words only match when not surrounded by letters or digits
+	 */
+	public CensorMatcher(Map<String, String> words, boolean wholeWords) {
+		this.wholeWords = wholeWords;
+		List<TreeMap<Character, Integer>> trie = new ArrayList<TreeMap<Character, Integer>>();
+		List<Integer> ends = new ArrayList<Integer>();
+		trie.add(new TreeMap<Character, Integer>());
+		ends.add(-1);
+		replacements = new String[words.size()];
+		lengths = new int[words.size()];
+		int index = 0;
+		for (Map.Entry<String, String> entry : words.entrySet()) {
+			String pattern = entry.getKey();
+			if (pattern.isEmpty()) {
+				continue;
+			}
+			int state = ROOT;
+			for (int i = 0; i < pattern.length(); i++) {
+				char c = Character.toLowerCase(pattern.charAt(i));
+				Integer next = trie.get(state).get(c);
+				if (next == null) {
+					next = trie.size();
+					trie.add(new TreeMap<Character, Integer>());
+					ends.add(-1);
+					trie.get(state).put(c, next);
+				}
+				state = next;
+			}
+			replacements[index] = entry.getValue();
+			lengths[index] = pattern.length();
+			ends.set(state, index++);
+		}
+		// Freeze the trie into arrays
+		int size = trie.size();
+		keys = new char[size][];
+		targets = new int[size][];
+		word = new int[size];
+		for (int state = 0; state < size; state++) {
+			TreeMap<Character, Integer> edges = trie.get(state);
+			keys[state] = new char[edges.size()];
+			targets[state] = new int[edges.size()];
+			int i = 0;
+			for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+				keys[state][i] = edge.getKey();
+				targets[state][i++] = edge.getValue();
+			}
+			word[state] = ends.get(state);
+		}
+		// Link every state to its longest proper suffix in the trie
+		fail = new int[size];
+		output = new int[size];
+		Arrays.fill(output, -1);
+		Queue<Integer> queue = new LinkedList<Integer>();
+		for (int child : targets[ROOT]) {
+			fail[child] = ROOT;
+			queue.add(child);
+		}
+		while (!queue.isEmpty()) {
+			int state = queue.poll();
+			int suffix = fail[state];
+			output[state] = word[suffix] != -1 ? suffix : output[suffix];
+			for (int i = 0; i < keys[state].length; i++) {
+				int child = targets[state][i];
+				int f = suffix;
+				int next;
+				while ((next = next(f, keys[state][i])) == -1 && f != ROOT) {
+					f = fail[f];
+				}
+				fail[child] = next == -1 || next == child ? ROOT : next;
+				queue.add(child);
+			}
+		}
+	}
+
+	/**
+	 * Whether the matcher has no words to censor.
+	 * 
+	 * @return true if empty
+	 */
+	public boolean isEmpty() {
+		return keys[ROOT].length == 0;
+	}
+
+	/**
+	 * Replaces every censored word in the message.
+	 * 
+	 * @param message to censor
+	 * @return censored message, or the same instance if nothing was censored
+	 */
+	public String censor(String message) {
+		if (isEmpty()) {
+			return message;
+		}
+		int length = message.length();
+		// The longest word starting at each index
+		int[] best = null;
+		int state = ROOT;
+		for (int i = 0; i < length; i++) {
+			state = step(state, Character.toLowerCase(message.charAt(i)));
+			for (int s = word[state] != -1 ? state : output[state]; s != -1; s = output[s]) {
+				int w = word[s];
+				int start = i - lengths[w] + 1;
+				if (wholeWords && !(isBoundary(message, start - 1) && isBoundary(message, i + 1))) {
+					continue;
+				}
+				if (best == null) {
+					best = new int[length];
+					Arrays.fill(best, -1);
+				}
+				if (best[start] == -1 || lengths[w] > lengths[best[start]]) {
+					best[start] = w;
+				}
+			}
+		}
+		if (best == null) {
+			return message;
+		}
+		StringBuilder builder = new StringBuilder(length);
+		for (int i = 0; i < length;) {
+			int w = best[i];
+			if (w == -1) {
+				builder.append(message.charAt(i++));
+			} else {
+				builder.append(replacements[w]);
+				i += lengths[w];
+			}
+		}
+		return builder.toString();
+	}
+
+	private int step(int state, char c) {
+		int next;
+		while ((next = next(state, c)) == -1 && state != ROOT) {
+			state = fail[state];
+		}
+		return next == -1 ? ROOT : next;
+	}
+
+	private int next(int state, char c) {
+		int i = Arrays.binarySearch(keys[state], c);
+		return i < 0 ? -1 : targets[state][i];
+	}
+
+	private static boolean isBoundary(String message, int index) {
+		return index < 0 || index >= message.length() || !Character.isLetterOrDigit(message.charAt(index));
+	}
+}
@@ -0,0 +1,65 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.util;
+
+/**
+ * Represents an action that is permitted per channel with a node of
+ * 'windchat.ACTION.CHANNEL'.
+ * @see {@link net.windwaker.chat.chan.Channel#getPermissionNode(ChannelPermission)}
+ */
+public enum ChannelPermission {
+	CHAT("chat"),
+	QUICK_MESSAGE("qm"),
+	JOIN("join"),
+	LEAVE("leave"),
+	WHO("who"),
+	CENSOR("censor"),
+	RADIUS("radius"),
+	MUTE("mute"),
+	UNMUTE("unmute"),
+	BAN("ban"),
+	UNBAN("unban"),
+	KICK("kick"),
+	INVITE("invite"),
+	INVITE_ONLY("invite-only"),
+	PASSWORD("pass");
+
+	private final String action;
+
+	private ChannelPermission(String action) {
+		this.action = action;
+	}
+
+	/**
+	 * Builds the permission node of the action in the specified channel.
+	 * @param channel name
+	 * @return permission node
+	 */
+	public String getNode(String channel) {
+		return "windchat." + action + "." + channel;
+	}
+
+	@Override
+	public String toString() {
+		return action;
+	}
+}
@@ -33,29 +33,37 @@ public enum Format {
 	/**
 	 * The standard format for chat messages.
 	 */
-	CHAT("chat-format", ChatArguments.fromFormatString(ChatConfiguration.DEFAULT_CHAT_FORMAT.getString())),
+	CHAT("chat-format", Template.compile(ChatConfiguration.DEFAULT_CHAT_FORMAT.getString())),
 	/**
 	 * The standard format for messages when joining the game.
 	 */
-	JOIN_MESSAGE("join-message-format", ChatArguments.fromFormatString(ChatConfiguration.DEFAULT_JOIN_MESSAGE_FORMAT.getString())),
+	JOIN_MESSAGE("join-message-format", Template.compile(ChatConfiguration.DEFAULT_JOIN_MESSAGE_FORMAT.getString())),
 	/**
 	 * The standard format for messages when leaving the game.
 	 */
-	LEAVE_MESSAGE("leave-message-format", ChatArguments.fromFormatString(ChatConfiguration.DEFAULT_LEAVE_MESSAGE_FORMAT.getString()));
+	LEAVE_MESSAGE("leave-message-format", Template.compile(ChatConfiguration.DEFAULT_LEAVE_MESSAGE_FORMAT.getString()));
 
 	private final String node;
-	private final ChatArguments def;
+	private final Template def;
 
-	private Format(String node, ChatArguments def) {
+	private Format(String node, Template def) {
 		this.node = node;
 		this.def = def;
 	}
 
 	/**
-	 * Gets the default value of the Format.
+	 * Gets a copy of the default value of the Format.
 	 * @return default value
 	 */
 	public ChatArguments getDefault() {
+		return def.render();
+	}
+
+	/**
+	 * Gets the compiled default value of the Format.
+	 * @return default template
+	 */
+	public Template getDefaultTemplate() {
 		return def;
 	}
 
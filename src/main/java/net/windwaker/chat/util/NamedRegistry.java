@@ -0,0 +1,135 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.util;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.spout.api.util.Named;
+
+/**
+ * A concurrent collection of {@link Named} objects keyed by their case
+ * insensitive name.
+ */
+public class NamedRegistry<T extends Named> implements Iterable<T> {
+	private final ConcurrentMap<String, T> values = new ConcurrentHashMap<String, T>();
+	private final Collection<T> view = Collections.unmodifiableCollection(values.values());
+
+	/**
+	 * Normalizes a name into the key used by the registry.
+	 * 
+	 * @param name to normalize
+	 * @return normalized name
+	 */
+	public static String normalize(String name) {
+		return name.toLowerCase(Locale.ENGLISH);
+	}
+
+	/**
+	 * Gets the value with the specified name.
+	 * 
+	 * @param name of value
+	 * @return value or null if not registered
+	 */
+	public T get(String name) {
+		if (name == null) {
+			return null;
+		}
+		return values.get(normalize(name));
+	}
+
+	/**
+	 * Whether a value with the specified name is registered.
+	 * 
+	 * @param name of value
+	 * @return true if registered
+	 */
+	public boolean contains(String name) {
+		return get(name) != null;
+	}
+
+	/**
+	 * Registers a value under its name, replacing any value with the same
+	 * name.
+	 * 
+	 * @param value to register
+	 * @return the replaced value or null
+	 */
+	public T add(T value) {
+		return values.put(normalize(value.getName()), value);
+	}
+
+	/**
+	 * Removes the value with the specified name.
+	 * 
+	 * @param name of value
+	 * @return the removed value or null
+	 */
+	public T remove(String name) {
+		return values.remove(normalize(name));
+	}
+
+	/**
+	 * Removes the specified value if it is still the one registered under
+	 * its name.
+	 * 
+	 * @param value to remove
+	 * @return true if removed
+	 */
+	public boolean remove(T value) {
+		return values.remove(normalize(value.getName()), value);
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void clear() {
+		values.clear();
+	}
+
+	/**
+	 * Gets the amount of registered values.
+	 * 
+	 * @return size
+	 */
+	public int size() {
+		return values.size();
+	}
+
+	/**
+	 * Gets a read-only view of the registered values.
+	 * 
+	 * @return values
+	 */
+	public Collection<T> values() {
+		return view;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return view.iterator();
+	}
+}
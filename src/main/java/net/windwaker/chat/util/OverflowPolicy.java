@@ -0,0 +1,53 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.util;
+
+/**
+ * What to do with a new message when the queue it is going into is full.
+ */
+public enum OverflowPolicy {
+	/**
+	 * Discards the new message.
+	 */
+	DROP_NEWEST,
+	/**
+	 * Discards the oldest queued message to make room.
+	 */
+	DROP_OLDEST,
+	/**
+	 * Waits for room in the queue.
+	 */
+	BLOCK;
+
+	/**
+	 * Gets a policy from its configured name, such as 'drop-oldest'.
+	 * @param name of policy
+	 * @return policy or DROP_OLDEST if not found
+	 */
+	public static OverflowPolicy get(String name) {
+		try {
+			return valueOf(name.toUpperCase().replace('-', '_'));
+		} catch (Exception e) {
+			return DROP_OLDEST;
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.util;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A set that publishes an immutable version of itself on every change.
+ * Reading never locks and always sees one complete version: iterating walks
+ * a dense array and lookups use a hash set that is never changed once it is
+ * published. Every change copies the set, so it suits sets that are read far
+ * more often than they change.
+ */
+public class SnapshotSet<T> extends AbstractSet<T> {
+	private final T[] empty;
+	private volatile Version<T> version;
+
+	/**
+	 * Constructs a new, empty SnapshotSet.
+	 * 
+	 * @param empty array of the element type, used to create the snapshots
+	 */
+	public SnapshotSet(T[] empty) {
+		this.empty = empty;
+		version = new Version<T>(Collections.<T>emptySet(), empty);
+	}
+
+	/**
+	 * One published state of the set.
+	 */
+	private static class Version<T> {
+		private final Set<T> set;
+		private final T[] array;
+
+		private Version(Set<T> set, T[] array) {
+			this.set = set;
+			this.array = array;
+		}
+	}
+
+	/**
+	 * Gets the elements of the current version of the set. The array is
+	 * shared and must not be changed.
+	 * 
+	 * @return elements
+	 */
+	public T[] snapshot() {
+		return version.array;
+	}
+
+	@Override
+	public int size() {
+		return version.array.length;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return version.array.length == 0;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return version.set.contains(o);
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		final T[] array = version.array;
+		return new Iterator<T>() {
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < array.length;
+			}
+
+			@Override
+			public T next() {
+				if (next >= array.length) {
+					throw new NoSuchElementException();
+				}
+				return array[next++];
+			}
+
+			@Override
+			public void remove() {
+				if (next == 0) {
+					throw new IllegalStateException();
+				}
+				SnapshotSet.this.remove(array[next - 1]);
+			}
+		};
+	}
+
+	@Override
+	public synchronized boolean add(T e) {
+		if (version.set.contains(e)) {
+			return false;
+		}
+		Set<T> set = new LinkedHashSet<T>(version.set);
+		set.add(e);
+		publish(set);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean addAll(Collection<? extends T> c) {
+		Set<T> set = new LinkedHashSet<T>(version.set);
+		if (!set.addAll(c)) {
+			return false;
+		}
+		publish(set);
+		return true;
+	}
+
+	@Override
+	public synchronized boolean remove(Object o) {
+		if (!version.set.contains(o)) {
+			return false;
+		}
+		Set<T> set = new LinkedHashSet<T>(version.set);
+		set.remove(o);
+		publish(set);
+		return true;
+	}
+
+	@Override
+	public synchronized void clear() {
+		version = new Version<T>(Collections.<T>emptySet(), empty);
+	}
+
+	/**
+	 * Replaces every element of the set with a single change, so no reader
+	 * sees the set in between.
+	 * 
+	 * @param c elements of the new version
+	 */
+	public synchronized void set(Collection<? extends T> c) {
+		publish(new LinkedHashSet<T>(c));
+	}
+
+	private void publish(Set<T> set) {
+		version = new Version<T>(set, set.toArray(empty));
+	}
+}
@@ -0,0 +1,219 @@
+/* Copyright (c) 2012 Walker Crouse, <http://windwaker.net/>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package net.windwaker.chat.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.spout.api.chat.ChatArguments;
+import org.spout.api.chat.Placeholder;
+
+/**
+ * An immutable, precompiled chat format. A format string is parsed once into
+ * a list of literal elements and {@link Placeholder} slots, rendering then only
+ * copies the literals and fills in the slots. A template is never modified by
+ * rendering so it may be shared between threads.
+ */
+public final class Template {
+	private static final int CACHE_SIZE = 256;
+	// Least recently used formats are evicted first, guarded by itself
+	private static final Map<String, Template> CACHE = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	private static final ThreadLocal<List<Object>> BUFFER = new ThreadLocal<List<Object>>() {
+		@Override
+		protected List<Object> initialValue() {
+			return new ArrayList<Object>();
+		}
+	};
+	private static final Placeholder[] NO_KEYS = new Placeholder[0];
+	private static final ChatArguments[] NO_VALUES = new ChatArguments[0];
+	private final Object[] elements;
+	private final String source;
+
+	private Template(Object[] elements, String source) {
+		this.elements = elements;
+		this.source = source;
+	}
+
+	/**
+	 * Compiles a format string into a template.
+	 * 
+	 * @param format to compile
+	 * @return compiled template
+	 */
+	public static Template compile(String format) {
+		return new Template(ChatArguments.fromFormatString(format).getArguments().toArray(), format);
+	}
+
+	/**
+	 * Compiles already parsed {@link ChatArguments} into a template.
+	 * 
+	 * @param format to compile
+	 * @return compiled template
+	 */
+	public static Template compile(ChatArguments format) {
+		return new Template(format.getArguments().toArray(), format.toFormatString());
+	}
+
+	/**
+	 * Gets the compiled template of a format string, compiling it only if it
+	 * has not been seen recently.
+	 * 
+	 * @param format to compile
+	 * @return compiled template
+	 */
+	public static Template cached(String format) {
+		Template template;
+		synchronized (CACHE) {
+			template = CACHE.get(format);
+		}
+		if (template == null) {
+			// Compile outside the lock, a format compiled twice is harmless
+			template = compile(format);
+			synchronized (CACHE) {
+				CACHE.put(format, template);
+			}
+		}
+		return template;
+	}
+
+	/**
+	 * Gets the format string the template was compiled from.
+	 * 
+	 * @return source format
+	 */
+	public String getSource() {
+		return source;
+	}
+
+	/**
+	 * Whether the template has a slot for the specified placeholder.
+	 * 
+	 * @param placeholder
+	 * @return true if has slot
+	 */
+	public boolean hasPlaceholder(Placeholder placeholder) {
+		for (Object element : elements) {
+			if (element.equals(placeholder)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Renders a copy of the template with all of the slots left unfilled.
+	 * 
+	 * @return rendered copy
+	 */
+	public ChatArguments render() {
+		return render(NO_KEYS, NO_VALUES);
+	}
+
+	/**
+	 * Renders the template filling in one slot.
+	 * 
+	 * @param key placeholder to fill
+	 * @param value to fill the placeholder with
+	 * @return rendered message
+	 */
+	public ChatArguments render(Placeholder key, ChatArguments value) {
+		return render(new Placeholder[] {key}, new ChatArguments[] {value});
+	}
+
+	/**
+	 * Renders the template filling in two slots.
+	 * 
+	 * @param key1 first placeholder to fill
+	 * @param value1 to fill the first placeholder with
+	 * @param key2 second placeholder to fill
+	 * @param value2 to fill the second placeholder with
+	 * @return rendered message
+	 */
+	public ChatArguments render(Placeholder key1, ChatArguments value1, Placeholder key2, ChatArguments value2) {
+		return render(new Placeholder[] {key1, key2}, new ChatArguments[] {value1, value2});
+	}
+
+	/**
+	 * Renders the template filling in the slots of the specified keys with the
+	 * value at the same index. Slots without a value are left as placeholders.
+	 * 
+	 * @param keys placeholders to fill
+	 * @param values to fill the placeholders with
+	 * @return rendered message
+	 */
+	public ChatArguments render(Placeholder[] keys, ChatArguments[] values) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("Expected " + keys.length + " values but got " + values.length + ".");
+		}
+		List<Object> buffer = BUFFER.get();
+		try {
+			for (Object element : elements) {
+				int slot = indexOf(keys, element);
+				if (slot == -1 || values[slot] == null) {
+					buffer.add(element);
+				} else {
+					buffer.addAll(values[slot].getExpandedPlaceholders());
+				}
+			}
+			return new ChatArguments(buffer);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	private static int indexOf(Placeholder[] keys, Object element) {
+		if (!(element instanceof Placeholder)) {
+			return -1;
+		}
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].equals(element)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public String toString() {
+		return source;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof Template && Arrays.equals(((Template) obj).elements, elements);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(elements);
+	}
+}